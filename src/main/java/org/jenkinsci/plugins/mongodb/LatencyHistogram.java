@@ -0,0 +1,115 @@
+package org.jenkinsci.plugins.mongodb;
+
+import java.io.Serializable;
+
+/**
+ * Latency histogram with bounded relative error, in the spirit of HdrHistogram.
+ *
+ * <p>
+ * Values (in microseconds) are recorded into buckets whose width doubles every
+ * {@link #SUB_BUCKETS} buckets, so every recorded value is off by at most 1/{@link #SUB_BUCKETS}
+ * of itself while the whole range fits in a few thousand counters.
+ */
+public class LatencyHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Buckets per power of two; gives about 1.5% precision. Must stay 64, see {@link #indexOf(long)}.
+     */
+    private static final int SUB_BUCKETS = 64;
+
+    /**
+     * Enough to cover 2^42 microseconds (about 50 days).
+     */
+    private static final int BUCKETS = SUB_BUCKETS + 37 * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+
+    private long total;
+
+    private long sum;
+
+    private long max;
+
+    public synchronized void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts[indexOf(micros)]++;
+        total++;
+        sum += micros;
+        max = Math.max(max, micros);
+    }
+
+    public synchronized void add(LatencyHistogram other) {
+        synchronized (other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+            sum += other.sum;
+            max = Math.max(max, other.max);
+        }
+    }
+
+    public synchronized long getCount() {
+        return total;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized double getMean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /**
+     * Smallest recorded value (as bucket upper bound) such that the given percentage of values are at or below it.
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(max, highestValueOf(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * One-line summary in milliseconds.
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+                total, getMean() / 1000,
+                getValueAtPercentile(50) / 1000.0, getValueAtPercentile(90) / 1000.0,
+                getValueAtPercentile(99) / 1000.0, getValueAtPercentile(99.9) / 1000.0, max / 1000.0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // value >>> shift falls in [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return Math.min(BUCKETS - 1, SUB_BUCKETS + shift * SUB_BUCKETS + sub);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub) << shift) + (1L << shift) - 1;
+    }
+}
@@ -2,10 +2,16 @@ package org.jenkinsci.plugins.mongodb;
 
 import static org.apache.commons.lang.StringUtils.isEmpty;
 import static org.apache.commons.lang.StringUtils.isNotEmpty;
+import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_InvalidInstanceName;
 import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_InvalidPortNumber;
 import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_NotDirectory;
 import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_NotEmptyDirectory;
 import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_InvalidStartTimeout;
+import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_NoSuchSnapshot;
+import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_PortInUse;
+import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_PortUsedByInstance;
+import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_ReservedInstanceName;
+import hudson.AbortException;
 import hudson.CopyOnWrite;
 import hudson.EnvVars;
 import hudson.Extension;
@@ -14,10 +20,13 @@ import hudson.FilePath.FileCallable;
 import hudson.Launcher;
 import hudson.Launcher.ProcStarter;
 import hudson.Proc;
+import hudson.Util;
 import hudson.model.BuildListener;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.TaskListener;
 import hudson.remoting.Callable;
 import hudson.remoting.VirtualChannel;
 import hudson.tasks.BuildWrapper;
@@ -28,13 +37,23 @@ import hudson.util.ListBoxModel;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
+import java.net.Socket;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
 
 import net.sf.json.JSONObject;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -48,16 +67,53 @@ public class MongoBuildWrapper extends BuildWrapper {
     private String port;
 	private String parameters;
 	private int startTimeout;
+    private boolean unixSocket;
+    private MongoLogRotation logRotation;
+    private boolean asyncTeardown;
+    private boolean captureWorkload;
+    private List<MongoInstance> instances;
+    private boolean fork;
+    private MongoWatchdog watchdog;
+    private String snapshot;
+    private MongoShardedCluster cluster;
+
+    /**
+     * The named instance this configuration was derived from, or null for the default instance.
+     */
+    private transient MongoInstance instance;
+
+    /**
+     * Arguments added for the role of a cluster component, or null.
+     */
+    private transient String[] roleArgs;
+
+    /**
+     * Config servers of the cluster if this configuration is a mongos, or null for a mongod.
+     */
+    private transient String configdb;
 
     public MongoBuildWrapper() {}
 
-    @DataBoundConstructor
     public MongoBuildWrapper(String mongodbName, String dbpath, String port, String parameters, int startTimeout) {
+        this(mongodbName, dbpath, port, parameters, startTimeout, false, null, false, false, null, false, null, null, null);
+    }
+
+    @DataBoundConstructor
+    public MongoBuildWrapper(String mongodbName, String dbpath, String port, String parameters, int startTimeout, boolean unixSocket, MongoLogRotation logRotation, boolean asyncTeardown, boolean captureWorkload, List<MongoInstance> instances, boolean fork, MongoWatchdog watchdog, String snapshot, MongoShardedCluster cluster) {
         this.mongodbName = mongodbName;
         this.dbpath = dbpath;
         this.port = port;
 		this.startTimeout = startTimeout;
 		this.parameters = parameters;
+        this.unixSocket = unixSocket;
+        this.logRotation = logRotation;
+        this.asyncTeardown = asyncTeardown;
+        this.captureWorkload = captureWorkload;
+        this.instances = instances;
+        this.fork = fork;
+        this.watchdog = watchdog;
+        this.snapshot = snapshot;
+        this.cluster = cluster;
     }
 
     public MongoDBInstallation getMongoDB() {
@@ -113,70 +169,532 @@ public class MongoBuildWrapper extends BuildWrapper {
 		this.startTimeout = startTimeout;
 	}
 
+    /**
+     * Whether mongod also listens on a Unix domain socket private to the build.
+     */
+    public boolean isUnixSocket() {
+        return unixSocket;
+    }
+
+    public void setUnixSocket(boolean unixSocket) {
+        this.unixSocket = unixSocket;
+    }
+
+    /**
+     * Size-bounded rotation of mongodb.log, or null to let it grow.
+     */
+    public MongoLogRotation getLogRotation() {
+        return logRotation;
+    }
+
+    public void setLogRotation(MongoLogRotation logRotation) {
+        this.logRotation = logRotation;
+    }
+
+    /**
+     * Whether mongod is stopped and its data directory deleted in the background once the build is done.
+     */
+    public boolean isAsyncTeardown() {
+        return asyncTeardown;
+    }
+
+    public void setAsyncTeardown(boolean asyncTeardown) {
+        this.asyncTeardown = asyncTeardown;
+    }
+
+    /**
+     * Whether the operations sent to mongod are profiled and saved with the build.
+     *
+     * @see MongoWorkloadCapture
+     */
+    public boolean isCaptureWorkload() {
+        return captureWorkload;
+    }
+
+    public void setCaptureWorkload(boolean captureWorkload) {
+        this.captureWorkload = captureWorkload;
+    }
+
+    /**
+     * Additional named instances, started in parallel with the default one.
+     */
+    public List<MongoInstance> getInstances() {
+        return instances == null ? Collections.<MongoInstance>emptyList() : Collections.unmodifiableList(instances);
+    }
+
+    public void setInstances(List<MongoInstance> instances) {
+        this.instances = instances;
+    }
+
+    /**
+     * Whether mongod daemonizes itself with <tt>--fork</tt> and is tracked through its pidfile.
+     * Only supported on Unix.
+     */
+    public boolean isFork() {
+        return fork;
+    }
+
+    public void setFork(boolean fork) {
+        this.fork = fork;
+    }
+
+    /**
+     * Health checks while the build runs, or null for none.
+     */
+    public MongoWatchdog getWatchdog() {
+        return watchdog;
+    }
+
+    public void setWatchdog(MongoWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Snapshot restored into the data directory before mongod starts, as <tt>name</tt> or <tt>name:version</tt>; empty for none.
+     *
+     * @see MongoSnapshots
+     */
+    public String getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(String snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Sharded cluster started instead of a standalone mongod, with mongos on {@link #getPort()}; null for a standalone mongod.
+     */
+    public MongoShardedCluster getCluster() {
+        return cluster;
+    }
+
+    public void setCluster(MongoShardedCluster cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * The configuration of a component of the sharded cluster.
+     *
+     * @param configdb
+     *      config servers to route to, for a mongos
+     * @param roleArgs
+     *      arguments for the role of a mongod
+     */
+    MongoBuildWrapper forComponent(String name, String port, String configdb, String... roleArgs) {
+        MongoBuildWrapper r = forInstance(new MongoInstance(name, null, null, port, configdb == null ? parameters : null, startTimeout));
+        r.configdb = configdb;
+        r.roleArgs = roleArgs;
+        return r;
+    }
+
+    /**
+     * The configuration of a named instance, which shares the launch mode, teardown mode and watchdog of this one.
+     */
+    private MongoBuildWrapper forInstance(MongoInstance instance) {
+        MongoBuildWrapper r = new MongoBuildWrapper(StringUtils.defaultIfEmpty(instance.getMongodbName(), mongodbName),
+                instance.getDbpath(), instance.getPort(), instance.getParameters(), instance.getStartTimeout());
+        r.asyncTeardown = asyncTeardown;
+        r.fork = fork;
+        r.watchdog = watchdog;
+        r.instance = instance;
+        return r;
+    }
+
+    /**
+     * mongodb.log, or mongodb-&lt;name&gt;.log for a named instance.
+     */
+    private FilePath getLogFile(FilePath workspace) {
+        return workspace.child(instance == null ? "mongodb.log" : "mongodb-" + instance.getName() + ".log");
+    }
+
+    /**
+     * mongodb.pid, or mongodb-&lt;name&gt;.pid for a named instance.
+     */
+    private FilePath getPidFile(FilePath workspace) {
+        return workspace.child(instance == null ? "mongodb.pid" : "mongodb-" + instance.getName() + ".pid");
+    }
+
 	@Override
     public Environment setUp(AbstractBuild build, final Launcher launcher, final BuildListener listener) throws IOException, InterruptedException {
 
+        List<MongoBuildWrapper> configs = new ArrayList<MongoBuildWrapper>();
+        if (cluster == null) {
+            configs.add(this);
+        }
+        Set<String> names = new HashSet<String>();
+        Set<String> ports = new HashSet<String>();
+        ports.add(StringUtils.defaultIfEmpty(port, "27017"));
+        for (MongoInstance i : getInstances()) {
+            if (!MongoInstance.isValidName(i.getName()) || !names.add(i.getEnvName())) {
+                listener.error(MongoDB_InvalidInstanceName(i.getName()));
+                return null;
+            }
+            if (MongoInstance.isReservedName(i.getName())) {
+                listener.error(MongoDB_ReservedInstanceName(i.getName()));
+                return null;
+            }
+            if (!ports.add(StringUtils.defaultIfEmpty(i.getPort(), "27017"))) {
+                listener.error(MongoDB_PortUsedByInstance(i.getName()));
+                return null;
+            }
+            configs.add(forInstance(i));
+        }
+        List<Integer> clusterPorts = null;
+        if (cluster != null) {
+            // the components only share the launch mode, teardown mode and watchdog
+            List<String> ignored = new ArrayList<String>();
+            if (isNotEmpty(snapshot)) {
+                ignored.add("snapshot");
+            }
+            if (unixSocket) {
+                ignored.add("Unix domain socket");
+            }
+            if (logRotation != null) {
+                ignored.add("log rotation");
+            }
+            if (captureWorkload) {
+                ignored.add("workload capture");
+            }
+            if (!ignored.isEmpty()) {
+                log(listener, "WARNING: ignoring " + StringUtils.join(ignored, ", ") + " for the sharded cluster");
+            }
+            try {
+                clusterPorts = cluster.allocatePorts(launcher, ports);
+            } catch (AbortException e) {
+                listener.error(e.getMessage());
+                return null;
+            }
+        }
+
+        // launch every mongod before waiting for any, so startup takes as long as the slowest instance
+        final List<Starting> starting = new ArrayList<Starting>();
+        try {
+            for (MongoBuildWrapper config : configs) {
+                starting.add(config.start(build, launcher, listener));
+            }
+            if (cluster != null) {
+                cluster.start(this, build, launcher, listener, clusterPorts, starting);
+            }
+            for (Starting s : starting) {
+                s.awaitStart(build, launcher, listener);
+            }
+        } catch (Exception e) {
+            if (e instanceof AbortException) {
+                log(listener, "ERROR: " + e.getMessage());
+            } else {
+                e.printStackTrace(listener.getLogger());
+            }
+            for (Starting s : starting) {
+                s.mongod.stop(listener, s.mongod.isOnScratchVolume());
+            }
+            return null;
+        }
+
+        return new BuildWrapper.Environment() {
+            @Override
+            public void buildEnvVars(Map<String, String> env) {
+                for (Starting s : starting) {
+                    s.buildEnvVars(env);
+                }
+                if (cluster != null) {
+                    env.put("MONGODB_PORT", StringUtils.defaultIfEmpty(port, "27017"));
+                }
+            }
+
+            @Override
+            public boolean tearDown(AbstractBuild build, BuildListener listener)
+                    throws IOException, InterruptedException {
+                for (Starting s : starting) {
+                    s.stop(listener);
+                }
+                return super.tearDown(build, listener);
+            }
+        };
+    }
+
+    /**
+     * Launches mongod (or mongos) without waiting for it to accept connections.
+     */
+    Starting start(AbstractBuild build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+
         EnvVars env = build.getEnvironment(listener);
 
+        if (instance != null) {
+            log(listener, "Starting instance " + instance.getName());
+        }
         MongoDBInstallation mongo = getMongoDB()
             .forNode(Computer.currentComputer().getNode(), listener)
             .forEnvironment(env);
-        ArgumentListBuilder args = new ArgumentListBuilder().add(mongo.getExecutable(launcher));
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        MongoCpuPlacement placement = MongoCpuPlacement.of(Computer.currentComputer().getNode());
+        Executor executor = Executor.currentExecutor();
+        if (placement != null && executor != null && launcher.isUnix()) {
+            for (String arg : placement.place(launcher.getChannel(), executor.getNumber(), Computer.currentComputer().getNumExecutors(), listener)) {
+                args.add(arg);
+            }
+        }
+        args.add(configdb == null ? mongo.getExecutable(launcher) : mongo.getMongosExecutable(launcher));
         String globalParameters = mongo.getParameters();
         int globalStartTimeout = mongo.getStartTimeout();
-        final FilePath dbpathFile = setupCmd(launcher,args, build.getWorkspace(), false, globalParameters);
+        String nodeName = Computer.currentComputer().getName();
+        FilePath workspace = build.getWorkspace();
+        FilePath defaultDbpath = instance == null
+                ? workspace.child("data").child("db")
+                : workspace.child("data").child(instance.getName()).child("db");
+        boolean onScratchVolume = false;
+        MongoScratchVolumes volumes = MongoScratchVolumes.of(Computer.currentComputer().getNode());
+        if (isEmpty(dbpath) && volumes != null && build.getProject().getPublishersList().get(MongoSnapshotPublisher.class) != null) {
+            // the data directory on a scratch volume is deleted when mongod stops, before publishers run
+            log(listener, "Not using a scratch volume, as the data directory is saved as a snapshot after the build.");
+        } else if (isEmpty(dbpath) && volumes != null) {
+            FilePath volume = volumes.select(launcher.getChannel(), MongoProcess.active(nodeName), listener);
+            if (volume != null) {
+                // keyed by workspace, so concurrent builds of the same job (workspace@2) don't share it
+                String key = workspace.getRemote() + (instance == null ? "" : "/" + instance.getName());
+                defaultDbpath = volume.child("jenkins-mongodb-" + Util.getDigestOf(key).substring(0, 12)).child("db");
+                onScratchVolume = true;
+            }
+        }
+        boolean daemon = fork;
+        if (fork && !launcher.isUnix()) {
+            log(listener, "mongod can only fork on Unix, running it in the foreground.");
+            daemon = false;
+        }
+        String effectivePort = StringUtils.defaultIfEmpty(port, "27017");
+        final FilePath dbpathFile;
+        if (configdb == null) {
+            dbpathFile = setupCmd(launcher,args, workspace, defaultDbpath, daemon, globalParameters);
+        } else {
+            // mongos keeps no data, the directory only identifies the process like for mongod
+            if (daemon) {
+                args.add("--fork");
+            }
+            args.add("--logpath").add(getLogFile(workspace).getRemote());
+            args.add("--port", effectivePort);
+            args.add("--configdb", configdb);
+            dbpathFile = defaultDbpath;
+        }
+        if (roleArgs != null) {
+            for (String arg : roleArgs) {
+                args.add(arg);
+            }
+        }
 
+        MongoReaper.awaitRelease(nodeName, dbpathFile, effectivePort, listener);
+        // otherwise whatever holds the port answers the readiness check in place of the mongod that failed to bind
+        if (launcher.getChannel().call(new PortInUseCheck(effectivePort))) {
+            throw new AbortException(MongoDB_PortInUse(effectivePort));
+        }
     	dbpathFile.deleteRecursive();
     	dbpathFile.mkdirs();
-        return launch(launcher, args, listener, globalStartTimeout);
+
+        if (isNotEmpty(snapshot)) {
+            MongoSnapshots snapshots = MongoSnapshots.get();
+            MongoSnapshots.Snapshot s = snapshots.resolve(env.expand(snapshot));
+            if (s == null) {
+                throw new AbortException(MongoDB_NoSuchSnapshot(env.expand(snapshot)));
+            }
+            snapshots.restore(s, Computer.currentComputer().getNode(), dbpathFile, listener);
+        }
+
+        if (captureWorkload) {
+            args.add("--profile", "2");
+        }
+
+        FilePath socket = null;
+        if (unixSocket) {
+            if (launcher.isUnix()) {
+                socket = setupSocket(launcher, args, build);
+            } else {
+                log(listener, "Unix domain sockets are not supported on this node, using TCP only.");
+            }
+        }
+
+        String owner = build.getProject().getFullName() + "#" + build.getNumber();
+        MongoProcess mongod = new MongoProcess(owner, nodeName, effectivePort, dbpathFile, socket);
+        mongod.setOnScratchVolume(onScratchVolume);
+        if (daemon) {
+            FilePath pidfile = getPidFile(workspace);
+            pidfile.delete();
+            args.add("--pidfilepath", pidfile.getRemote());
+            mongod.setPidfile(pidfile);
+        }
+        Future<Boolean> ready = launch(launcher, args, listener, globalStartTimeout, mongod,
+                socket == null ? null : mongo.getShellExecutable(launcher));
+        return new Starting(mongo, mongod, ready);
     }
 
-    protected Environment launch(final Launcher launcher, ArgumentListBuilder args, final BuildListener listener, int globalStartTimeout) throws IOException, InterruptedException {
-        ProcStarter procStarter = launcher.launch().cmds(args);
-        log(listener, "Executing mongodb start command: "+procStarter.cmds());
-		final Proc proc = procStarter.start();
+    /**
+     * A launched mongod of this configuration.
+     */
+    final class Starting {
 
-        try {
-        	
-        	int effectiveTimeout = globalStartTimeout;
-        	if(startTimeout>0) {
-        		effectiveTimeout = startTimeout;
-        	}
-        	
-            Boolean startResult = launcher.getChannel().call(new WaitForStartCommand(listener, port, effectiveTimeout));
-            if(!startResult) {
-                log(listener, "ERROR: Filed to start mongodb");
+        final MongoDBInstallation mongo;
+
+        final MongoProcess mongod;
+
+        final Future<Boolean> ready;
+
+        Starting(MongoDBInstallation mongo, MongoProcess mongod, Future<Boolean> ready) {
+            this.mongo = mongo;
+            this.mongod = mongod;
+            this.ready = ready;
+        }
+
+        void awaitStart(AbstractBuild build, Launcher launcher, BuildListener listener) throws Exception {
+            if (!ready.get()) {
+                throw new AbortException("Filed to start mongodb" + (instance == null ? "" : " instance " + instance.getName()));
+            }
+            FilePath workspace = build.getWorkspace();
+            if (watchdog != null) {
+                mongod.addBeforeStop(watchdog.start(build, mongod, getLogFile(workspace), listener));
+            }
+            if (logRotation != null) {
+                mongod.setLogWatcher(logRotation.start(launcher, mongo.getShellExecutable(launcher),
+                        mongod.getPort(), getLogFile(workspace), listener));
+            }
+            if (captureWorkload) {
+                mongod.addBeforeStop(new MongoWorkloadCapture(launcher, mongo.getShellExecutable(launcher), mongod.getPort(),
+                        workspace.child(MongoWorkloadCapture.FILE_NAME), new File(build.getRootDir(), MongoWorkloadCapture.FILE_NAME)));
             }
-        } catch (Exception e) {
-            e.printStackTrace(listener.getLogger());
-            return null;
         }
 
-        return new BuildWrapper.Environment() {
-            @Override
-            public boolean tearDown(AbstractBuild build, BuildListener listener)
-                    throws IOException, InterruptedException {
-                if (proc.isAlive()) {
-                    log(listener, "Killing mongodb process...");
-                    proc.kill();
-                } else {
-                    log(listener, "Will not kill mongodb process as it is already dead.");
+        void buildEnvVars(Map<String, String> env) {
+            if (instance == null) {
+                env.put("MONGODB_PORT", mongod.getPort());
+                env.put("MONGODB_DBPATH", mongod.getDbpath().getRemote());
+                FilePath socket = mongod.getSocket();
+                if (socket != null) {
+                    env.put("MONGODB_SOCKET", socket.getRemote());
+                    env.put("MONGODB_SOCKET_URI", "mongodb://" + socket.getRemote().replace("/", "%2F"));
                 }
-                return super.tearDown(build, listener);
+            } else {
+                String prefix = "MONGODB_" + instance.getEnvName() + "_";
+                env.put(prefix + "PORT", mongod.getPort());
+                env.put(prefix + "DBPATH", mongod.getDbpath().getRemote());
+                env.put(prefix + "URI", "mongodb://localhost:" + mongod.getPort());
             }
-        };
+        }
+
+        void stop(BuildListener listener) throws IOException, InterruptedException {
+            // scratch volumes are shared by every job on the node, so don't leave data behind
+            if (asyncTeardown) {
+                log(listener, "Stopping mongodb process in the background...");
+                MongoReaper.reap(mongod, mongod.isOnScratchVolume());
+            } else {
+                mongod.stop(listener, mongod.isOnScratchVolume());
+            }
+        }
+    }
+
+    /**
+     * Makes mongod listen on a socket in a directory private to the build, so concurrent builds never collide.
+     * The directory lives under /tmp rather than the workspace as socket paths are limited to about 100 characters.
+     *
+     * @return the socket file mongod will create
+     */
+    protected FilePath setupSocket(Launcher launcher, ArgumentListBuilder args, AbstractBuild build) throws IOException, InterruptedException {
+        String key = Util.getDigestOf(build.getProject().getFullName() + "#" + build.getNumber()).substring(0, 12);
+        FilePath socketDir = new FilePath(launcher.getChannel(), "/tmp/jenkins-mongodb-" + key);
+        socketDir.deleteRecursive();
+        socketDir.mkdirs();
+        args.add("--unixSocketPrefix", socketDir.getRemote());
+        return socketDir.child("mongodb-" + StringUtils.defaultIfEmpty(port, "27017") + ".sock");
+    }
+
+    /**
+     * Starts mongod.
+     *
+     * @param shell
+     *      the mongo shell, used to check that mongod accepts connections on its Unix domain socket, if it has one
+     * @return
+     *      whether mongod accepted connections within the start timeout
+     */
+    protected Future<Boolean> launch(Launcher launcher, ArgumentListBuilder args, final BuildListener listener, int globalStartTimeout, final MongoProcess mongod, String shell) throws IOException, InterruptedException {
+        ProcStarter procStarter = launcher.launch().cmds(args)
+            .envs(MongoOrphanReaper.MARKER + "=" + mongod.getOwner());
+        if (mongod.getPidfile() != null) {
+            procStarter.stdout(listener);
+        }
+        log(listener, "Executing mongodb start command: "+procStarter.cmds());
+		mongod.setProc(procStarter.start());
+        FilePath socket = mongod.getSocket();
+
+    	int effectiveTimeout = globalStartTimeout;
+    	if(startTimeout>0) {
+    		effectiveTimeout = startTimeout;
+    	}
+
+        if (mongod.getPidfile() != null) {
+            // with --fork, the parent exits once the server accepts connections
+            final long deadline = System.currentTimeMillis() + (effectiveTimeout == 0 ? 15000 : effectiveTimeout);
+            return Computer.threadPoolForRemoting.submit(new java.util.concurrent.Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    Proc parent = mongod.getProc();
+                    while (parent.isAlive()) {
+                        if (System.currentTimeMillis() > deadline) {
+                            parent.kill();
+                            return false;
+                        }
+                        Thread.sleep(100);
+                    }
+                    int r = parent.join();
+                    if (r != 0) {
+                        log(listener, "mongod exited with code " + r);
+                        return false;
+                    }
+                    mongod.readPid();
+                    log(listener, "MongoDB forked with pid " + mongod.getPid());
+                    return true;
+                }
+            });
+        }
+        final VirtualChannel channel = launcher.getChannel();
+        final ProbeCommand probe = new ProbeCommand(mongod.getPort(), socket == null ? null : socket.getRemote(), shell);
+        final long deadline = System.currentTimeMillis() + (effectiveTimeout == 0 ? 15000 : effectiveTimeout);
+        log(listener, "Starting...");
+        return Computer.threadPoolForRemoting.submit(new java.util.concurrent.Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                while (!channel.call(probe)) {
+                    // no point waiting out the timeout for a mongod that already exited
+                    Proc proc = mongod.getProc();
+                    if (!proc.isAlive()) {
+                        log(listener, "mongod exited with code " + proc.join());
+                        return false;
+                    }
+                    if (System.currentTimeMillis() > deadline) {
+                        return false;
+                    }
+                    Thread.sleep(1000);
+                }
+                log(listener, "MongoDB running at:http://localhost:" + mongod.getPort());
+                if (mongod.getSocket() != null) {
+                    log(listener, "MongoDB listening on:" + mongod.getSocket().getRemote());
+                }
+                return true;
+            }
+        });
     }
 
     protected FilePath setupCmd(Launcher launcher, ArgumentListBuilder args, FilePath workspace, boolean fork, String globalParameters) throws IOException, InterruptedException {
+        return setupCmd(launcher, args, workspace, workspace.child("data").child("db"), fork, globalParameters);
+    }
+
+    /**
+     * @param defaultDbpath
+     *      data directory to use when none is configured
+     */
+    protected FilePath setupCmd(Launcher launcher, ArgumentListBuilder args, FilePath workspace, FilePath defaultDbpath, boolean fork, String globalParameters) throws IOException, InterruptedException {
 
         if (fork) {
         	args.add("--fork");
         }
-        args.add("--logpath").add(workspace.child("mongodb.log").getRemote());
+        args.add("--logpath").add(getLogFile(workspace).getRemote());
 
         FilePath dbpathFile;
         if (isEmpty(dbpath)) {
-            dbpathFile = workspace.child("data").child("db");
+            dbpathFile = defaultDbpath;
         } else {
             dbpathFile = new FilePath(launcher.getChannel(),dbpath);
             boolean isAbsolute = dbpathFile.act(new IsAbsoluteCheck());
@@ -218,65 +736,86 @@ public class MongoBuildWrapper extends BuildWrapper {
         return dbpathFile;
     }
 
-    private static void log(BuildListener listener, String log) {
+    static void log(TaskListener listener, String log) {
         listener.getLogger().println(String.format("[MongoDB] %s", log));
     }
 
-    private static class WaitForStartCommand implements Callable<Boolean, Exception> {
+    /**
+     * Checks whether something on the node already accepts connections on a port.
+     */
+    private static class PortInUseCheck implements Callable<Boolean, IOException> {
 
-        private BuildListener listener;
+        private static final long serialVersionUID = 1L;
 
-        private String port;
+        private final String port;
 
-		private int startTimeout;
-
-		private long waitStart;
+        public PortInUseCheck(String port) {
+            this.port = port;
+        }
 
-        public WaitForStartCommand(BuildListener listener, String port, int startTimeout) {
-            this.listener = listener;
-            this.port = StringUtils.defaultIfEmpty(port, "27017");
-            if(startTimeout == 0) {
-            	this.startTimeout = 15000;
-            } else {
-            	this.startTimeout = startTimeout;
+        public Boolean call() throws IOException {
+            try {
+                new Socket("localhost", Integer.parseInt(port)).close();
+                return true;
+            } catch (ConnectException e) {
+                return false;
             }
         }
+    }
+
+    /**
+     * Checks once whether mongod accepts connections: on its TCP port, and through its Unix domain socket if it has one.
+     */
+    private static class ProbeCommand implements Callable<Boolean, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String port;
+
+        private final String socket;
+
+        private final String shell;
 
-        public Boolean call() throws Exception {
-        	waitStart = System.currentTimeMillis();
-            return waitForStart();
+        /**
+         * @param shell
+         *      the mongo shell, used to connect through the socket; only needed with a socket
+         */
+        public ProbeCommand(String port, String socket, String shell) {
+            this.port = port;
+            this.socket = socket;
+            this.shell = shell;
         }
 
-        protected boolean waitForStart() throws Exception {
-            log(listener, "Starting...");
+        public Boolean call() throws IOException {
             HttpURLConnection conn = null;
             try {
                 conn = (HttpURLConnection) new URL("http://localhost:" + port).openConnection();
-                if (conn.getResponseCode() == 200) {
-                    log(listener, "MongoDB running at:"+new URL("http://localhost:" + port).toString());
-                    return true;
-                } else {
+                if (conn.getResponseCode() != 200) {
                     return false;
                 }
-            } catch (MalformedURLException e) {
-                throw e;
             } catch (ConnectException e) {
-                try {
-                    if (startTimeout>=System.currentTimeMillis()-waitStart) {
-                        Thread.sleep(1000);
-                        return waitForStart();
-                    } else {
-                        return false;
-                    }
-                } catch (InterruptedException e1) {
-                    throw e;
-                }
-            } catch (IOException e) {
-                throw e;
+                return false;
             } finally {
                 if (conn != null)
                     conn.disconnect();
             }
+            if (socket == null) {
+                return true;
+            }
+            // the socket file appears before mongod listens on it, so actually connect through it
+            if (!new File(socket).exists()) {
+                return false;
+            }
+            Process p = new ProcessBuilder(shell, "--quiet", "--host", socket, "--eval", "1").redirectErrorStream(true).start();
+            try {
+                p.getOutputStream().close();
+                IOUtils.copy(p.getInputStream(), new NullOutputStream());
+                return p.waitFor() == 0;
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while connecting through " + socket);
+            } finally {
+                p.destroy();
+            }
         }
     }
 
@@ -328,6 +867,20 @@ public class MongoBuildWrapper extends BuildWrapper {
         	}
         }
         
+        public static FormValidation doCheckName(@QueryParameter String value) {
+            if (!MongoInstance.isValidName(value)) {
+                return FormValidation.error(MongoDB_InvalidInstanceName(value));
+            }
+            return MongoInstance.isReservedName(value) ? FormValidation.error(MongoDB_ReservedInstanceName(value)) : FormValidation.ok();
+        }
+
+        public static FormValidation doCheckSnapshot(@QueryParameter String value) throws IOException {
+            if (isEmpty(value) || value.contains("$")) {
+                return FormValidation.ok();
+            }
+            return MongoSnapshots.get().resolve(value) != null ? FormValidation.ok() : FormValidation.error(MongoDB_NoSuchSnapshot(value));
+        }
+
         public static FormValidation doCheckPort(@QueryParameter String value) {
             return isPortNumber(value) ? FormValidation.ok() : FormValidation.error(MongoDB_InvalidPortNumber());
         }
@@ -0,0 +1,267 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Pins mongod to a set of CPUs, and the memory of their NUMA node, derived from the executor
+ * the build runs on, so that concurrent builds on a Linux node don't compete for the same cores.
+ *
+ * <p>
+ * CPUs are taken in NUMA node order, so executor <i>n</i> gets the <i>n</i>-th slice of
+ * {@link #getCpusPerExecutor()} CPUs, wrapping around when there are more executors than slices.
+ * mongod is launched through <tt>numactl</tt> when memory binding applies and it is installed,
+ * otherwise through <tt>taskset</tt>. Nodes without either, or that aren't Linux, run mongod unpinned.
+ */
+public class MongoCpuPlacement extends NodeProperty<Node> {
+
+    private final int cpusPerExecutor;
+
+    private final boolean numa;
+
+    @DataBoundConstructor
+    public MongoCpuPlacement(int cpusPerExecutor, boolean numa) {
+        this.cpusPerExecutor = cpusPerExecutor;
+        this.numa = numa;
+    }
+
+    /**
+     * CPUs per executor; 0 divides the CPUs of the node evenly among its executors.
+     */
+    public int getCpusPerExecutor() {
+        return cpusPerExecutor;
+    }
+
+    /**
+     * Whether memory is also bound to the NUMA node of the CPUs.
+     */
+    public boolean isNuma() {
+        return numa;
+    }
+
+    /**
+     * Returns the CPU placement settings of the node, or the global ones.
+     */
+    public static MongoCpuPlacement of(Node node) {
+        MongoCpuPlacement r = node.getNodeProperties().get(MongoCpuPlacement.class);
+        if (r == null) {
+            r = Hudson.getInstance().getGlobalNodeProperties().get(MongoCpuPlacement.class);
+        }
+        return r;
+    }
+
+    /**
+     * Works out the command mongod has to be launched through.
+     *
+     * @param executor
+     *      number of the executor the build runs on
+     * @param executors
+     *      number of executors of the node
+     * @return
+     *      the command to prepend to the mongod command line, empty if mongod can't be pinned
+     */
+    public List<String> place(VirtualChannel channel, int executor, int executors, TaskListener listener) throws IOException, InterruptedException {
+        Placement p = channel.call(new Place(executor, executors, cpusPerExecutor, numa));
+        MongoBuildWrapper.log(listener, p.description);
+        return p.command;
+    }
+
+    /**
+     * Picks the CPUs of an executor.
+     *
+     * @param nodes
+     *      CPUs of each NUMA node
+     */
+    static List<Integer> assign(List<List<Integer>> nodes, int executor, int executors, int cpusPerExecutor) {
+        List<Integer> cpus = new ArrayList<Integer>();
+        for (List<Integer> n : nodes) {
+            cpus.addAll(n);
+        }
+        if (cpus.isEmpty()) {
+            return cpus;
+        }
+        int size = cpusPerExecutor > 0 ? cpusPerExecutor : Math.max(1, cpus.size() / Math.max(1, executors));
+        size = Math.min(size, cpus.size());
+        int slices = cpus.size() / size;
+        int start = (executor % slices) * size;
+        return new ArrayList<Integer>(cpus.subList(start, start + size));
+    }
+
+    /**
+     * Index of the NUMA node holding all the given CPUs, or -1 if they span several.
+     */
+    static int numaNodeOf(List<List<Integer>> nodes, List<Integer> cpus) {
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i).containsAll(cpus)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the kernel's CPU list format, e.g. <tt>0-3,8-11</tt>.
+     */
+    static List<Integer> parseCpuList(String list) {
+        List<Integer> r = new ArrayList<Integer>();
+        for (String range : list.trim().split(",")) {
+            if (range.length() == 0) {
+                continue;
+            }
+            String[] bounds = range.split("-");
+            int from = Integer.parseInt(bounds[0].trim());
+            int to = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : from;
+            for (int i = from; i <= to; i++) {
+                r.add(i);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Formats CPUs in the kernel's CPU list format.
+     */
+    static String formatCpuList(List<Integer> cpus) {
+        List<Integer> sorted = new ArrayList<Integer>(cpus);
+        Collections.sort(sorted);
+        StringBuilder r = new StringBuilder();
+        for (int i = 0; i < sorted.size(); i++) {
+            int from = sorted.get(i);
+            while (i + 1 < sorted.size() && sorted.get(i + 1) == sorted.get(i) + 1) {
+                i++;
+            }
+            if (r.length() > 0) {
+                r.append(',');
+            }
+            r.append(from);
+            if (sorted.get(i) != from) {
+                r.append('-').append(sorted.get(i));
+            }
+        }
+        return r.toString();
+    }
+
+    private static class Placement implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> command;
+
+        private final String description;
+
+        Placement(List<String> command, String description) {
+            this.command = command;
+            this.description = description;
+        }
+    }
+
+    /**
+     * Reads the CPU topology of the node from sysfs and looks for numactl or taskset.
+     */
+    private static class Place implements Callable<Placement, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int executor;
+
+        private final int executors;
+
+        private final int cpusPerExecutor;
+
+        private final boolean numa;
+
+        public Place(int executor, int executors, int cpusPerExecutor, boolean numa) {
+            this.executor = executor;
+            this.executors = executors;
+            this.cpusPerExecutor = cpusPerExecutor;
+            this.numa = numa;
+        }
+
+        public Placement call() throws IOException {
+            List<String> none = Collections.emptyList();
+            File online = new File("/sys/devices/system/cpu/online");
+            if (!online.isFile()) {
+                return new Placement(none, "CPU placement is not supported on this node, not pinning mongod");
+            }
+
+            // NUMA node numbers may have gaps, so keep them next to the CPU lists
+            List<Integer> ids = new ArrayList<Integer>();
+            File[] dirs = new File("/sys/devices/system/node").listFiles();
+            if (dirs != null) {
+                for (File d : dirs) {
+                    if (d.getName().matches("node[0-9]+") && new File(d, "cpulist").isFile()) {
+                        ids.add(Integer.parseInt(d.getName().substring("node".length())));
+                    }
+                }
+            }
+            Collections.sort(ids);
+            List<List<Integer>> nodes = new ArrayList<List<Integer>>();
+            for (int id : ids) {
+                nodes.add(parseCpuList(FileUtils.readFileToString(new File("/sys/devices/system/node/node" + id + "/cpulist"))));
+            }
+            if (nodes.isEmpty()) {
+                nodes.add(parseCpuList(FileUtils.readFileToString(online)));
+            }
+
+            List<Integer> cpus = assign(nodes, executor, executors, cpusPerExecutor);
+            if (cpus.isEmpty()) {
+                return new Placement(none, "No online CPUs found, not pinning mongod");
+            }
+            String cpuList = formatCpuList(cpus);
+            int node = numaNodeOf(nodes, cpus);
+
+            String numactl = which("numactl");
+            if (numa && nodes.size() > 1 && node >= 0 && numactl != null) {
+                int id = ids.get(node);
+                return new Placement(Arrays.asList(numactl, "--physcpubind=" + cpuList, "--membind=" + id),
+                        String.format("Pinning mongod to CPUs %s and NUMA node %d (executor #%d)", cpuList, id, executor));
+            }
+            String taskset = which("taskset");
+            if (taskset != null) {
+                return new Placement(Arrays.asList(taskset, "-c", cpuList),
+                        String.format("Pinning mongod to CPUs %s (executor #%d)", cpuList, executor));
+            }
+            return new Placement(none, "Neither numactl nor taskset is installed, not pinning mongod");
+        }
+
+        private static String which(String command) {
+            String path = System.getenv("PATH");
+            if (path == null) {
+                path = "/usr/bin:/bin";
+            }
+            for (String dir : path.split(File.pathSeparator)) {
+                File f = new File(dir, command);
+                if (f.isFile() && f.canExecute()) {
+                    return f.getAbsolutePath();
+                }
+            }
+            return null;
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends NodePropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return "MongoDB CPU placement";
+        }
+    }
+}
@@ -88,6 +88,24 @@ public class MongoDBInstallation extends ToolInstallation implements Environment
         });
     }
 
+    /**
+     * Path of the <tt>mongo</tt> shell shipped next to mongod.
+     */
+    public String getShellExecutable(final Launcher launcher) throws IOException, InterruptedException {
+        String mongod = getExecutable(launcher);
+        int i = mongod.lastIndexOf("mongod");
+        return mongod.substring(0, i) + "mongo" + mongod.substring(i + "mongod".length());
+    }
+
+    /**
+     * Path of the <tt>mongos</tt> router shipped next to mongod.
+     */
+    public String getMongosExecutable(final Launcher launcher) throws IOException, InterruptedException {
+        String mongod = getExecutable(launcher);
+        int i = mongod.lastIndexOf("mongod");
+        return mongod.substring(0, i) + "mongos" + mongod.substring(i + "mongod".length());
+    }
+
     protected File findExecutable(File parent) {
         for (File child : parent.listFiles()) {
             if (child.isFile() && (parent.getName() + "/" + child.getName()).equals(getExeFile())) {
@@ -0,0 +1,315 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.FilePath.TarCompression;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ProcessTree;
+import hudson.util.ProcessTree.OSProcess;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Agent-side store of extracted MongoDB archives, keyed by archive checksum.
+ *
+ * <p>
+ * Installations that download the same archive share a single extracted copy.
+ * When the store grows beyond {@link #BUDGET_MB}, the least recently used entries
+ * are deleted, except those a running process was started from. Every change to the store happens under a file lock, so
+ * concurrent builds on the same agent never extract into each other's directory.
+ *
+ * <pre>
+ * STORE/
+ *   .lock
+ *   urls/&lt;digest of url&gt;     checksum of the archive downloaded from that url
+ *   downloads/                temporary archives
+ *   &lt;checksum&gt;/                extracted archive
+ *     .complete               written once extraction has finished
+ *     .size                   size of the extracted files in bytes
+ *     .lastUsed               timestamp of the last lookup
+ * </pre>
+ */
+public class MongoDBInstallationStore {
+
+    /**
+     * Disk budget of the store in megabytes.
+     */
+    public static long BUDGET_MB = Long.getLong(MongoDBInstallationStore.class.getName() + ".budgetMB", 2048);
+
+    /**
+     * Entries looked up more recently than this (in milliseconds) are never evicted, as builds may be about to use them.
+     * Entries that a running process was started from are never evicted either, however long ago they were looked up.
+     */
+    public static long EVICTION_GRACE = Long.getLong(MongoDBInstallationStore.class.getName() + ".evictionGrace", 60 * 60 * 1000L);
+
+    /**
+     * Serializes access to the store between executors of the same agent JVM,
+     * as {@link FileLock} only guards against other processes.
+     */
+    private static final Object LOCK = new Object();
+
+    private final FilePath root;
+
+    public MongoDBInstallationStore(FilePath root) {
+        this.root = root;
+    }
+
+    public MongoDBInstallationStore(Node node) {
+        this(node.getRootPath().child("tools").child("mongodb-store"));
+    }
+
+    public FilePath getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the extracted archive previously downloaded from the given url, or null.
+     */
+    public FilePath lookup(String url) throws IOException, InterruptedException {
+        String path = root.act(new Lookup(url));
+        return path == null ? null : new FilePath(root.getChannel(), path);
+    }
+
+    /**
+     * Downloads the archive and adds it to the store, unless an identical archive is already there.
+     */
+    public FilePath install(String url) throws IOException, InterruptedException {
+        FilePath downloads = root.child("downloads");
+        downloads.mkdirs();
+        FilePath archive = downloads.createTempFile("mongodb", ".archive");
+        try {
+            archive.copyFrom(new URL(url));
+            return new FilePath(root.getChannel(), root.act(new Install(url, archive.getRemote(), BUDGET_MB * 1024 * 1024, EVICTION_GRACE)));
+        } finally {
+            archive.delete();
+        }
+    }
+
+    private static String urlKey(String url) {
+        return Util.getDigestOf(url);
+    }
+
+    private static FileLock lock(File store) throws IOException {
+        store.mkdirs();
+        return new RandomAccessFile(new File(store, ".lock"), "rw").getChannel().lock();
+    }
+
+    private static void release(FileLock lock) throws IOException {
+        lock.release();
+        lock.channel().close();
+    }
+
+    private static File resolve(File store, String url) throws IOException {
+        File index = new File(new File(store, "urls"), urlKey(url));
+        if (!index.exists()) {
+            return null;
+        }
+        File entry = new File(store, FileUtils.readFileToString(index).trim());
+        if (!new File(entry, ".complete").exists()) {
+            return null;
+        }
+        return entry;
+    }
+
+    private static void touch(File entry) throws IOException {
+        FileUtils.writeStringToFile(new File(entry, ".lastUsed"), String.valueOf(System.currentTimeMillis()));
+    }
+
+    private static long lastUsed(File entry) {
+        try {
+            return Long.parseLong(FileUtils.readFileToString(new File(entry, ".lastUsed")).trim());
+        } catch (Exception e) {
+            return entry.lastModified();
+        }
+    }
+
+    /**
+     * Arguments of every process on this machine, which include the executable of mongod started from the store.
+     */
+    private static List<String> runningCommandLines() {
+        List<String> r = new ArrayList<String>();
+        for (OSProcess p : ProcessTree.get()) {
+            try {
+                r.addAll(p.getArguments());
+            } catch (Exception e) {
+                // not ours to read; a mongod of a build runs as the agent user
+            }
+        }
+        return r;
+    }
+
+    private static boolean isInUse(File entry, List<String> running) {
+        String prefix = entry.getPath() + File.separator;
+        for (String arg : running) {
+            if (arg.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long size(File entry) {
+        try {
+            return Long.parseLong(FileUtils.readFileToString(new File(entry, ".size")).trim());
+        } catch (Exception e) {
+            return FileUtils.sizeOfDirectory(entry);
+        }
+    }
+
+    /**
+     * If the extracted archive has a single top-level directory (e.g. <tt>mongodb-linux-x86_64-2.0.0</tt>), returns it.
+     */
+    private static File pullUp(File dir) {
+        List<File> children = new ArrayList<File>();
+        for (File child : dir.listFiles()) {
+            if (!child.getName().startsWith(".")) {
+                children.add(child);
+            }
+        }
+        if (children.size() == 1 && children.get(0).isDirectory() && !children.get(0).getName().equals("bin")) {
+            return children.get(0);
+        }
+        return dir;
+    }
+
+    private static class Lookup implements FileCallable<String> {
+
+        private final String url;
+
+        public Lookup(String url) {
+            this.url = url;
+        }
+
+        public String invoke(File store, VirtualChannel channel) throws IOException, InterruptedException {
+            synchronized (LOCK) {
+                FileLock lock = lock(store);
+                try {
+                    File entry = resolve(store, url);
+                    if (entry == null) {
+                        return null;
+                    }
+                    touch(entry);
+                    return pullUp(entry).getPath();
+                } finally {
+                    release(lock);
+                }
+            }
+        }
+    }
+
+    private static class Install implements FileCallable<String> {
+
+        private final String url;
+
+        private final String archive;
+
+        private final long budget;
+
+        private final long grace;
+
+        public Install(String url, String archive, long budget, long grace) {
+            this.url = url;
+            this.archive = archive;
+            this.budget = budget;
+            this.grace = grace;
+        }
+
+        public String invoke(File store, VirtualChannel channel) throws IOException, InterruptedException {
+            File archiveFile = new File(archive);
+            String checksum;
+            InputStream in = new FileInputStream(archiveFile);
+            try {
+                checksum = Util.getDigestOf(in);
+            } finally {
+                in.close();
+            }
+
+            synchronized (LOCK) {
+                FileLock lock = lock(store);
+                try {
+                    File entry = new File(store, checksum);
+                    if (!new File(entry, ".complete").exists()) {
+                        Util.deleteRecursive(entry);
+                        File tmp = new File(store, checksum + ".tmp");
+                        Util.deleteRecursive(tmp);
+                        tmp.mkdirs();
+                        if (url.endsWith(".zip")) {
+                            new FilePath(archiveFile).unzip(new FilePath(tmp));
+                        } else {
+                            new FilePath(archiveFile).untar(new FilePath(tmp), TarCompression.GZIP);
+                        }
+                        if (!tmp.renameTo(entry)) {
+                            throw new IOException(String.format("Failed to rename %s to %s", tmp, entry));
+                        }
+                        FileUtils.writeStringToFile(new File(entry, ".size"), String.valueOf(FileUtils.sizeOfDirectory(entry)));
+                        FileUtils.writeStringToFile(new File(entry, ".complete"), url);
+                    }
+                    touch(entry);
+
+                    File urls = new File(store, "urls");
+                    urls.mkdirs();
+                    FileUtils.writeStringToFile(new File(urls, urlKey(url)), checksum);
+
+                    evict(store, entry);
+                    return pullUp(entry).getPath();
+                } finally {
+                    release(lock);
+                }
+            }
+        }
+
+        /**
+         * Deletes least recently used entries until the store fits in the budget.
+         */
+        private void evict(File store, File keep) throws IOException {
+            List<String> running = runningCommandLines();
+            List<File> entries = new ArrayList<File>();
+            long total = 0;
+            for (File f : store.listFiles()) {
+                if (new File(f, ".complete").exists()) {
+                    entries.add(f);
+                    total += size(f);
+                }
+            }
+            File[] sorted = entries.toArray(new File[entries.size()]);
+            Arrays.sort(sorted, new Comparator<File>() {
+                public int compare(File a, File b) {
+                    long d = lastUsed(a) - lastUsed(b);
+                    return d < 0 ? -1 : d > 0 ? 1 : 0;
+                }
+            });
+
+            long now = System.currentTimeMillis();
+            for (File entry : sorted) {
+                if (total <= budget) {
+                    break;
+                }
+                if (entry.equals(keep) || now - lastUsed(entry) < grace || isInUse(entry, running)) {
+                    continue;
+                }
+                long size = size(entry);
+                try {
+                    new File(entry, ".complete").delete();
+                    Util.deleteRecursive(entry);
+                    total -= size;
+                } catch (IOException e) {
+                    // still in use (e.g. by a running mongod on Windows); try again next time
+                }
+            }
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package org.jenkinsci.plugins.mongodb;
 
 import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Node;
+import hudson.model.TaskListener;
 import hudson.tools.DownloadFromUrlInstaller;
 import hudson.tools.ToolInstallation;
 
+import java.io.IOException;
+
 import org.kohsuke.stapler.DataBoundConstructor;
 
 public class MongoDBInstaller extends DownloadFromUrlInstaller {
@@ -13,6 +18,27 @@ public class MongoDBInstaller extends DownloadFromUrlInstaller {
         super(id);
     }
 
+    /**
+     * Installs into the agent's {@link MongoDBInstallationStore} rather than the tool's own home,
+     * so installations of the same archive share one copy.
+     */
+    @Override
+    public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log) throws IOException, InterruptedException {
+        Installable inst = getInstallable();
+        if (inst == null || node.getRootPath() == null) {
+            return super.performInstallation(tool, node, log);
+        }
+
+        MongoDBInstallationStore store = new MongoDBInstallationStore(node);
+        FilePath home = store.lookup(inst.url);
+        if (home != null) {
+            return home;
+        }
+
+        log.getLogger().println(String.format("Unpacking %s to %s on %s", inst.url, store.getRoot(), node.getDisplayName()));
+        return store.install(inst.url);
+    }
+
     @Extension
     public static final class DescriptorImpl extends DownloadFromUrlInstaller.DescriptorImpl<MongoDBInstaller> {
         public String getDisplayName() {
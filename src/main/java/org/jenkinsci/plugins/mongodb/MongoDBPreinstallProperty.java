@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.apache.commons.lang.StringUtils.isEmpty;
+import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_InvalidLabel;
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolProperty;
+import hudson.tools.ToolPropertyDescriptor;
+import hudson.util.FormValidation;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import antlr.ANTLRException;
+
+/**
+ * Opts a {@link MongoDBInstallation} in to being installed and resolved
+ * as soon as a matching agent comes online.
+ *
+ * @see MongoDBPreinstaller
+ */
+public class MongoDBPreinstallProperty extends ToolProperty<MongoDBInstallation> {
+
+    private final String label;
+
+    private final boolean warmUp;
+
+    @DataBoundConstructor
+    public MongoDBPreinstallProperty(String label, boolean warmUp) {
+        this.label = label;
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * Label expression selecting the agents to pre-install on. Empty means every agent.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Whether to run a dry <tt>mongod --version</tt> after installation so the
+     * binaries are in the OS page cache before the first build.
+     */
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    public boolean appliesTo(Node node) throws ANTLRException {
+        if (isEmpty(label)) {
+            return true;
+        }
+        return Label.parseExpression(label).contains(node);
+    }
+
+    @Override
+    public Class<MongoDBInstallation> type() {
+        return MongoDBInstallation.class;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends ToolPropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return "Install when agents come online";
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+            return toolType == MongoDBInstallation.class;
+        }
+
+        public static FormValidation doCheckLabel(@QueryParameter String value) {
+            if (isEmpty(value)) {
+                return FormValidation.ok();
+            }
+            try {
+                Label.parseExpression(value);
+                return FormValidation.ok();
+            } catch (ANTLRException e) {
+                return FormValidation.error(MongoDB_InvalidLabel(e.getMessage()));
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.LogTaskListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import antlr.ANTLRException;
+
+/**
+ * Installs and resolves opted-in {@link MongoDBInstallation}s in the background
+ * when an agent comes online, so the first build there doesn't pay for the
+ * download, extraction and executable lookup.
+ *
+ * @see MongoDBPreinstallProperty
+ */
+@Extension
+public class MongoDBPreinstaller extends ComputerListener {
+
+    private static final Logger LOGGER = Logger.getLogger(MongoDBPreinstaller.class.getName());
+
+    /**
+     * Number of installations prepared concurrently across all agents coming online.
+     */
+    public static int PARALLELISM = Integer.getInteger(MongoDBPreinstaller.class.getName() + ".parallelism", 2);
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, PARALLELISM), new DaemonThreadFactory());
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        Node node = c.getNode();
+        if (node == null) {
+            return;
+        }
+        for (MongoDBInstallation inst : installationsFor(node)) {
+            executor.submit(new Preinstall(c, inst, inst.getProperties().get(MongoDBPreinstallProperty.class).isWarmUp()));
+        }
+    }
+
+    /**
+     * The installations that opted in to being pre-installed on the node.
+     */
+    static List<MongoDBInstallation> installationsFor(Node node) {
+        List<MongoDBInstallation> r = new ArrayList<MongoDBInstallation>();
+        MongoDBInstallation[] installations = Hudson.getInstance().getDescriptorByType(MongoBuildWrapper.DescriptorImpl.class).getInstallations();
+        for (MongoDBInstallation inst : installations) {
+            MongoDBPreinstallProperty property = inst.getProperties().get(MongoDBPreinstallProperty.class);
+            if (property == null) {
+                continue;
+            }
+            try {
+                if (property.appliesTo(node)) {
+                    r.add(inst);
+                }
+            } catch (ANTLRException e) {
+                LOGGER.log(Level.WARNING, String.format("Invalid label expression for MongoDB installation %s", inst.getName()), e);
+            }
+        }
+        return r;
+    }
+
+    private static class Preinstall implements Runnable {
+
+        private final Computer computer;
+
+        private final MongoDBInstallation installation;
+
+        private final boolean warmUp;
+
+        public Preinstall(Computer computer, MongoDBInstallation installation, boolean warmUp) {
+            this.computer = computer;
+            this.installation = installation;
+            this.warmUp = warmUp;
+        }
+
+        public void run() {
+            Node node = computer.getNode();
+            if (node == null || computer.isOffline()) {
+                return;
+            }
+            TaskListener log = new LogTaskListener(LOGGER, Level.INFO);
+            try {
+                MongoDBInstallation mongo = installation
+                    .forNode(node, log)
+                    .forEnvironment(computer.getEnvironment());
+                Launcher launcher = node.createLauncher(log);
+                String executable = mongo.getExecutable(launcher);
+                if (warmUp) {
+                    launcher.launch().cmds(executable, "--version").stdout(log).join();
+                }
+                LOGGER.info(String.format("Prepared MongoDB installation %s on %s: %s", installation.getName(), computer.getDisplayName(), executable));
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, String.format("Failed to prepare MongoDB installation %s on %s", installation.getName(), computer.getDisplayName()), e);
+            }
+        }
+    }
+}
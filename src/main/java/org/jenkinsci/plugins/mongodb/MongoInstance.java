@@ -0,0 +1,95 @@
+package org.jenkinsci.plugins.mongodb;
+
+import java.util.Locale;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * An additional, named mongod started by {@link MongoBuildWrapper} next to the default one.
+ *
+ * <p>
+ * Each instance gets its own installation, port, data directory and log, and is exported to
+ * the build as <tt>MONGODB_&lt;NAME&gt;_PORT</tt>, <tt>MONGODB_&lt;NAME&gt;_DBPATH</tt> and
+ * <tt>MONGODB_&lt;NAME&gt;_URI</tt>.
+ */
+public class MongoInstance {
+
+    private final String name;
+
+    private final String mongodbName;
+
+    private final String dbpath;
+
+    private final String port;
+
+    private final String parameters;
+
+    private final int startTimeout;
+
+    @DataBoundConstructor
+    public MongoInstance(String name, String mongodbName, String dbpath, String port, String parameters, int startTimeout) {
+        this.name = name;
+        this.mongodbName = mongodbName;
+        this.dbpath = dbpath;
+        this.port = port;
+        this.parameters = parameters;
+        this.startTimeout = startTimeout;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Installation to use; empty to use the one of the default instance.
+     */
+    public String getMongodbName() {
+        return mongodbName;
+    }
+
+    /**
+     * Data directory; empty for <tt>data/&lt;name&gt;/db</tt> in the workspace.
+     */
+    public String getDbpath() {
+        return dbpath;
+    }
+
+    public String getPort() {
+        return port;
+    }
+
+    public String getParameters() {
+        return parameters;
+    }
+
+    public int getStartTimeout() {
+        return startTimeout;
+    }
+
+    /**
+     * The name as used in environment variables, e.g. <tt>ORDERS</tt> for <tt>orders</tt>.
+     */
+    public String getEnvName() {
+        return envName(name);
+    }
+
+    private static String envName(String name) {
+        return name.toUpperCase(Locale.ENGLISH).replaceAll("[^A-Z0-9]", "_");
+    }
+
+    /**
+     * Whether the name can be used in file and variable names.
+     */
+    public static boolean isValidName(String name) {
+        return name != null && name.matches("[A-Za-z0-9_\\-]+");
+    }
+
+    /**
+     * Whether the name, or one differing only in case or punctuation, is used by the components
+     * of a {@link MongoShardedCluster}: <tt>cfgN</tt>, <tt>shardN-N</tt> and <tt>mongos</tt>.
+     * Their files and variables would clash with those of an instance of the same name.
+     */
+    public static boolean isReservedName(String name) {
+        return name != null && envName(name).matches("CFG[0-9]+|SHARD[0-9]+_[0-9]+|MONGOS");
+    }
+}
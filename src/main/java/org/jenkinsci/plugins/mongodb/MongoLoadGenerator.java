@@ -0,0 +1,291 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_InvalidPercentages;
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.model.Action;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.remoting.Callable;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.Mongo;
+import com.mongodb.MongoOptions;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+
+/**
+ * Runs a synthetic read/update/insert mix against a running mongod (typically the one
+ * started by {@link MongoBuildWrapper}) and records throughput and latency percentiles
+ * as a {@link MongoLoadResult} on the build.
+ *
+ * <p>
+ * The load runs on the node, in a scratch database that is dropped afterwards.
+ */
+public class MongoLoadGenerator extends Builder {
+
+    private static final String DATABASE = "jenkins_loadgen";
+
+    private final String port;
+
+    private final int readPercent;
+
+    private final int updatePercent;
+
+    private final int documentSize;
+
+    private final int keys;
+
+    private final String distribution;
+
+    private final int threads;
+
+    private final int duration;
+
+    @DataBoundConstructor
+    public MongoLoadGenerator(String port, int readPercent, int updatePercent, int documentSize, int keys, String distribution, int threads, int duration) {
+        this.port = port;
+        this.readPercent = readPercent;
+        this.updatePercent = updatePercent;
+        this.documentSize = documentSize;
+        this.keys = keys;
+        this.distribution = distribution;
+        this.threads = threads;
+        this.duration = duration;
+    }
+
+    /**
+     * Port of mongod; may refer to build variables such as <tt>$MONGODB_PORT</tt>.
+     */
+    public String getPort() {
+        return port;
+    }
+
+    public int getReadPercent() {
+        return readPercent;
+    }
+
+    public int getUpdatePercent() {
+        return updatePercent;
+    }
+
+    /**
+     * Size of the payload of each document, in bytes.
+     */
+    public int getDocumentSize() {
+        return documentSize;
+    }
+
+    /**
+     * Number of documents loaded before the run, which reads and updates pick from.
+     */
+    public int getKeys() {
+        return keys;
+    }
+
+    /**
+     * <tt>uniform</tt>, or <tt>hotspot</tt> to send 80% of reads and updates to 20% of the keys.
+     */
+    public String getDistribution() {
+        return distribution;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Length of the run, in seconds.
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+        String effectivePort = StringUtils.defaultIfEmpty(build.getEnvironment(listener).expand(port), "27017");
+        MongoBuildWrapper.log(listener, String.format("Generating load on port %s: %d%% reads, %d%% updates, %d%% inserts of %d byte documents over %d %s keys, %d threads for %ds",
+                effectivePort, readPercent, updatePercent, 100 - readPercent - updatePercent, documentSize, keys,
+                StringUtils.defaultIfEmpty(distribution, "uniform"), Math.max(1, threads), Math.max(1, duration)));
+
+        MongoLoadResult result;
+        try {
+            result = launcher.getChannel().call(new LoadRun(Integer.parseInt(effectivePort), this));
+        } catch (Exception e) {
+            e.printStackTrace(listener.error("Failed to generate load"));
+            return false;
+        }
+
+        MongoBuildWrapper.log(listener, String.format("Throughput: %.1f ops/s", result.getThroughput()));
+        for (MongoLoadResult.Summary s : result.getSummaries()) {
+            MongoBuildWrapper.log(listener, s.toString());
+        }
+        build.addAction(result);
+        return true;
+    }
+
+    @Override
+    public Action getProjectAction(AbstractProject<?, ?> project) {
+        return new MongoLoadTrend(project);
+    }
+
+    /**
+     * Generates the load on the node.
+     */
+    private static class LoadRun implements Callable<MongoLoadResult, Exception> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int port;
+
+        private final int readPercent;
+
+        private final int updatePercent;
+
+        private final int documentSize;
+
+        private final int keys;
+
+        private final boolean hotspot;
+
+        private final int threads;
+
+        private final long durationMillis;
+
+        public LoadRun(int port, MongoLoadGenerator config) {
+            this.port = port;
+            this.readPercent = config.readPercent;
+            this.updatePercent = config.updatePercent;
+            this.documentSize = Math.max(0, config.documentSize);
+            this.keys = Math.max(1, config.keys);
+            this.hotspot = "hotspot".equals(config.distribution);
+            this.threads = Math.max(1, config.threads);
+            this.durationMillis = Math.max(1, config.duration) * 1000L;
+        }
+
+        public MongoLoadResult call() throws Exception {
+            MongoOptions options = new MongoOptions();
+            options.connectionsPerHost = threads;
+            final Mongo mongo = new Mongo(new ServerAddress("127.0.0.1", port), options);
+            try {
+                DB db = mongo.getDB(DATABASE);
+                db.dropDatabase();
+                final DBCollection docs = db.getCollection("docs");
+                final String payload = StringUtils.repeat("x", documentSize);
+                for (int i = 0; i < keys; i++) {
+                    docs.insert(new BasicDBObject("_id", i).append("payload", payload), WriteConcern.SAFE);
+                }
+
+                final TreeMap<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+                histograms.put("read", new LatencyHistogram());
+                histograms.put("update", new LatencyHistogram());
+                histograms.put("insert", new LatencyHistogram());
+                final long end = System.currentTimeMillis() + durationMillis;
+                final List<Throwable> failures = new ArrayList<Throwable>();
+
+                List<Thread> workers = new ArrayList<Thread>();
+                for (int t = 0; t < threads; t++) {
+                    final int worker = t;
+                    workers.add(new Thread("MongoDB load generator #" + t) {
+                        @Override
+                        public void run() {
+                            Random random = new Random(worker);
+                            // inserts use keys above the preloaded range, partitioned by worker
+                            long nextInsert = keys + worker;
+                            try {
+                                while (System.currentTimeMillis() < end) {
+                                    int dice = random.nextInt(100);
+                                    long start = System.nanoTime();
+                                    if (dice < readPercent) {
+                                        docs.findOne(new BasicDBObject("_id", pick(random)));
+                                        histograms.get("read").record((System.nanoTime() - start) / 1000);
+                                    } else if (dice < readPercent + updatePercent) {
+                                        docs.update(new BasicDBObject("_id", pick(random)),
+                                                new BasicDBObject("$inc", new BasicDBObject("n", 1)), false, false, WriteConcern.SAFE);
+                                        histograms.get("update").record((System.nanoTime() - start) / 1000);
+                                    } else {
+                                        docs.insert(new BasicDBObject("_id", nextInsert).append("payload", payload), WriteConcern.SAFE);
+                                        nextInsert += threads;
+                                        histograms.get("insert").record((System.nanoTime() - start) / 1000);
+                                    }
+                                }
+                            } catch (Throwable e) {
+                                synchronized (failures) {
+                                    failures.add(e);
+                                }
+                            }
+                        }
+                    });
+                }
+                long start = System.currentTimeMillis();
+                for (Thread w : workers) {
+                    w.start();
+                }
+                for (Thread w : workers) {
+                    w.join();
+                }
+                long elapsed = System.currentTimeMillis() - start;
+                db.dropDatabase();
+
+                if (!failures.isEmpty()) {
+                    throw new IOException("Load generator failed: " + failures.get(0), failures.get(0));
+                }
+                return new MongoLoadResult(histograms, elapsed);
+            } finally {
+                mongo.close();
+            }
+        }
+
+        private long pick(Random random) {
+            if (hotspot && random.nextInt(100) < 80) {
+                return random.nextInt(Math.max(1, keys / 5));
+            }
+            return random.nextInt(keys);
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Generate MongoDB load";
+        }
+
+        public ListBoxModel doFillDistributionItems() {
+            ListBoxModel m = new ListBoxModel();
+            m.add("uniform");
+            m.add("hotspot");
+            return m;
+        }
+
+        public static FormValidation doCheckUpdatePercent(@QueryParameter int readPercent, @QueryParameter int value) {
+            if (readPercent < 0 || value < 0 || readPercent + value > 100) {
+                return FormValidation.error(MongoDB_InvalidPercentages());
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.model.Action;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Throughput and latency percentiles of a {@link MongoLoadGenerator} run, kept with the build.
+ */
+public class MongoLoadResult implements Action, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Summary> summaries = new ArrayList<Summary>();
+
+    private final long elapsed;
+
+    private final long operations;
+
+    public MongoLoadResult(Map<String, LatencyHistogram> histograms, long elapsed) {
+        this.elapsed = elapsed;
+        long total = 0;
+        LatencyHistogram all = new LatencyHistogram();
+        for (Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            if (e.getValue().getCount() > 0) {
+                summaries.add(new Summary(e.getKey(), e.getValue()));
+                all.add(e.getValue());
+                total += e.getValue().getCount();
+            }
+        }
+        summaries.add(new Summary("all", all));
+        this.operations = total;
+    }
+
+    public List<Summary> getSummaries() {
+        return Collections.unmodifiableList(summaries);
+    }
+
+    public Summary getSummary(String operation) {
+        for (Summary s : summaries) {
+            if (s.getOperation().equals(operation)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Operations per second.
+     */
+    public double getThroughput() {
+        return elapsed == 0 ? 0 : operations * 1000.0 / elapsed;
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    public String getIconFileName() {
+        return "graph.gif";
+    }
+
+    public String getDisplayName() {
+        return "MongoDB Load";
+    }
+
+    public String getUrlName() {
+        return "mongodbLoad";
+    }
+
+    /**
+     * Latency percentiles of one operation type, in microseconds.
+     */
+    public static class Summary implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String operation;
+        private final long count;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        public Summary(String operation, LatencyHistogram h) {
+            this.operation = operation;
+            this.count = h.getCount();
+            this.mean = h.getMean();
+            this.p50 = h.getValueAtPercentile(50);
+            this.p90 = h.getValueAtPercentile(90);
+            this.p99 = h.getValueAtPercentile(99);
+            this.p999 = h.getValueAtPercentile(99.9);
+            this.max = h.getMax();
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-7s n=%d mean=%.0fus p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+                    operation, count, mean, p50, p90, p99, p999, max);
+        }
+    }
+}
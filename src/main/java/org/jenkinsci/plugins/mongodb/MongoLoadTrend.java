@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows {@link MongoLoadResult}s of the recent builds of a project, to spot nodes or
+ * changes that degrade database performance.
+ */
+public class MongoLoadTrend implements Action {
+
+    /**
+     * Number of builds shown.
+     */
+    public static int MAX_BUILDS = Integer.getInteger(MongoLoadTrend.class.getName() + ".maxBuilds", 30);
+
+    private final AbstractProject<?, ?> project;
+
+    public MongoLoadTrend(AbstractProject<?, ?> project) {
+        this.project = project;
+    }
+
+    public AbstractProject<?, ?> getProject() {
+        return project;
+    }
+
+    /**
+     * Recent builds with a load result, newest first.
+     */
+    public List<AbstractBuild<?, ?>> getBuilds() {
+        List<AbstractBuild<?, ?>> r = new ArrayList<AbstractBuild<?, ?>>();
+        for (AbstractBuild<?, ?> b : project.getBuilds()) {
+            if (r.size() >= MAX_BUILDS) {
+                break;
+            }
+            if (b.getAction(MongoLoadResult.class) != null) {
+                r.add(b);
+            }
+        }
+        return r;
+    }
+
+    public MongoLoadResult getResult(AbstractBuild<?, ?> build) {
+        return build.getAction(MongoLoadResult.class);
+    }
+
+    public String getIconFileName() {
+        return "graph.gif";
+    }
+
+    public String getDisplayName() {
+        return "MongoDB Load Trend";
+    }
+
+    public String getUrlName() {
+        return "mongodbLoad";
+    }
+}
@@ -0,0 +1,229 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.Launcher;
+import hudson.model.BuildListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Keeps <tt>mongodb.log</tt> under a size limit while the build runs.
+ *
+ * <p>
+ * When the log grows beyond {@link #getMaxSizeMB()}, mongod is asked to rotate it
+ * (<tt>logRotate</tt> command) and the rotated segment is gzipped in the background.
+ * At teardown the last segment is compressed as well and all segments are concatenated
+ * into one gzip file per build, <tt>mongodb.log-&lt;timestamp&gt;.gz</tt>. Only the newest
+ * {@link #getRetain()} of those are kept in the workspace.
+ */
+public class MongoLogRotation implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * How often (in seconds) the log size is checked.
+     */
+    public static int CHECK_INTERVAL = Integer.getInteger(MongoLogRotation.class.getName() + ".checkInterval", 10);
+
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, new DaemonThreadFactory());
+
+    private final int maxSizeMB;
+
+    private final int retain;
+
+    @DataBoundConstructor
+    public MongoLogRotation(int maxSizeMB, int retain) {
+        this.maxSizeMB = maxSizeMB;
+        this.retain = retain;
+    }
+
+    /**
+     * Size (in megabytes) at which the log is rotated. 0 means 100.
+     */
+    public int getMaxSizeMB() {
+        return maxSizeMB;
+    }
+
+    /**
+     * Number of builds whose compressed log is kept at teardown. 0 keeps them all.
+     */
+    public int getRetain() {
+        return retain;
+    }
+
+    public Watcher start(Launcher launcher, String shell, String port, FilePath logFile, BuildListener listener) {
+        return new Watcher(launcher, shell, port, logFile, listener);
+    }
+
+    private long getMaxSize() {
+        return (maxSizeMB > 0 ? maxSizeMB : 100) * 1024L * 1024L;
+    }
+
+    /**
+     * Watches the log of one running mongod.
+     */
+    public final class Watcher implements Runnable {
+
+        private final Launcher launcher;
+
+        private final String shell;
+
+        private final String port;
+
+        private final FilePath logFile;
+
+        private final BuildListener listener;
+
+        private final ScheduledFuture<?> future;
+
+        private Watcher(Launcher launcher, String shell, String port, FilePath logFile, BuildListener listener) {
+            this.launcher = launcher;
+            this.shell = shell;
+            this.port = port;
+            this.logFile = logFile;
+            this.listener = listener;
+            this.future = scheduler.scheduleWithFixedDelay(this, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.SECONDS);
+        }
+
+        public synchronized void run() {
+            try {
+                if (logFile.length() < getMaxSize()) {
+                    return;
+                }
+                listener.getLogger().println(String.format("[MongoDB] Rotating %s (%d bytes)", logFile.getRemote(), logFile.length()));
+                int r = launcher.launch()
+                    .cmds(shell, "--quiet", "--port", port, "admin", "--eval", "db.runCommand({logRotate: 1})")
+                    .stdout(listener)
+                    .join();
+                if (r != 0) {
+                    listener.getLogger().println("[MongoDB] logRotate failed with exit code " + r);
+                    return;
+                }
+                logFile.getParent().act(new Compress(logFile.getName(), null, 0));
+            } catch (Exception e) {
+                e.printStackTrace(listener.getLogger());
+            }
+        }
+
+        /**
+         * Stops watching and compresses what's left of the log. Call once mongod has stopped.
+         */
+        public void finish() throws IOException, InterruptedException {
+            future.cancel(false);
+            synchronized (this) {
+                FilePath dir = logFile.getParent();
+                // mongod names rotated segments after UTC time, so the last one has to be too
+                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH-mm-ss");
+                format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                String timestamp = format.format(new Date());
+                if (logFile.exists()) {
+                    logFile.renameTo(dir.child(logFile.getName() + "." + timestamp));
+                }
+                dir.act(new Compress(logFile.getName(), logFile.getName() + "-" + timestamp + ".gz", retain));
+            }
+        }
+    }
+
+    /**
+     * Gzips rotated segments of the log. If a bundle name is given, the compressed segments
+     * are then concatenated into it (a multi-member gzip file, which <tt>zcat</tt> reads as one log)
+     * and all but the newest <tt>retain</tt> bundles are deleted.
+     */
+    private static class Compress implements FileCallable<Void> {
+
+        private final String name;
+
+        private final String bundle;
+
+        private final int retain;
+
+        public Compress(String name, String bundle, int retain) {
+            this.name = name;
+            this.bundle = bundle;
+            this.retain = retain;
+        }
+
+        public Void invoke(File dir, VirtualChannel channel) throws IOException {
+            for (File segment : segments(dir, false)) {
+                File gz = new File(dir, segment.getName() + ".gz");
+                InputStream in = new FileInputStream(segment);
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(gz));
+                try {
+                    IOUtils.copy(in, out);
+                } finally {
+                    IOUtils.closeQuietly(in);
+                    out.close();
+                }
+                segment.delete();
+            }
+
+            if (bundle == null) {
+                return null;
+            }
+
+            File[] compressed = segments(dir, true);
+            // segments and bundles are suffixed with a timestamp, so name order is age order
+            Arrays.sort(compressed);
+            OutputStream out = new FileOutputStream(new File(dir, bundle));
+            try {
+                for (File segment : compressed) {
+                    InputStream in = new FileInputStream(segment);
+                    try {
+                        IOUtils.copy(in, out);
+                    } finally {
+                        IOUtils.closeQuietly(in);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            for (File segment : compressed) {
+                segment.delete();
+            }
+
+            if (retain > 0) {
+                File[] bundles = dir.listFiles(new FileFilter() {
+                    public boolean accept(File f) {
+                        return f.isFile() && f.getName().startsWith(name + "-") && f.getName().endsWith(".gz");
+                    }
+                });
+                Arrays.sort(bundles);
+                for (int i = 0; i < bundles.length - retain; i++) {
+                    bundles[i].delete();
+                }
+            }
+            return null;
+        }
+
+        private File[] segments(File dir, final boolean compressed) {
+            File[] files = dir.listFiles(new FileFilter() {
+                public boolean accept(File f) {
+                    return f.isFile() && f.getName().startsWith(name + ".") && f.getName().endsWith(".gz") == compressed;
+                }
+            });
+            return files == null ? new File[0] : files;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ProcessTree;
+import hudson.util.ProcessTree.OSProcess;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Stops mongod processes whose build is no longer running.
+ *
+ * <p>
+ * If the agent connection drops or the controller restarts mid-build, the handle to mongod is lost
+ * and it keeps running. Every mongod started by {@link MongoBuildWrapper} carries the
+ * {@link #MARKER} environment variable naming its build; this periodically looks for such
+ * processes on every online node and terminates those whose build has finished.
+ */
+@Extension
+public class MongoOrphanReaper extends AsyncPeriodicWork {
+
+    /**
+     * Environment variable set on mongod, holding <tt>JOB_FULL_NAME#BUILD_NUMBER</tt> of its build.
+     */
+    public static final String MARKER = "JENKINS_MONGODB_BUILD";
+
+    public static long RECURRENCE_PERIOD = Long.getLong(MongoOrphanReaper.class.getName() + ".recurrencePeriod", 5 * MIN);
+
+    public MongoOrphanReaper() {
+        super("MongoDB orphan reaper");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        for (Computer c : Hudson.getInstance().getComputers()) {
+            VirtualChannel channel = c.getChannel();
+            if (channel == null) {
+                continue;
+            }
+            try {
+                Map<Integer, String> orphans = new HashMap<Integer, String>();
+                for (Entry<Integer, String> e : channel.call(new ListMarked()).entrySet()) {
+                    if (!isRunning(e.getValue())) {
+                        orphans.put(e.getKey(), e.getValue());
+                    }
+                }
+                if (orphans.isEmpty()) {
+                    continue;
+                }
+                for (Entry<Integer, String> e : orphans.entrySet()) {
+                    listener.getLogger().println(String.format("Stopping orphaned mongod (pid %d) of %s on %s", e.getKey(), e.getValue(), c.getDisplayName()));
+                }
+                channel.call(new Kill(orphans));
+            } catch (IOException e) {
+                e.printStackTrace(listener.error("Failed to look for orphaned mongod on " + c.getDisplayName()));
+            }
+        }
+    }
+
+    /**
+     * Whether the build named by a marker value is still running.
+     */
+    static boolean isRunning(String owner) {
+        int i = owner.lastIndexOf('#');
+        if (i < 0) {
+            return false;
+        }
+        AbstractProject<?, ?> project = Hudson.getInstance().getItemByFullName(owner.substring(0, i), AbstractProject.class);
+        if (project == null) {
+            return false;
+        }
+        try {
+            Run<?, ?> build = project.getBuildByNumber(Integer.parseInt(owner.substring(i + 1)));
+            return build != null && build.isBuilding();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Lists processes carrying the marker, as pid to marker value.
+     */
+    private static class ListMarked implements Callable<Map<Integer, String>, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        public Map<Integer, String> call() throws IOException {
+            Map<Integer, String> r = new HashMap<Integer, String>();
+            for (OSProcess p : ProcessTree.get()) {
+                String owner = p.getEnvironmentVariables().get(MARKER);
+                if (owner != null) {
+                    r.put(p.getPid(), owner);
+                }
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Terminates the given processes, skipping any whose pid has since been reused.
+     */
+    private static class Kill implements Callable<Void, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Map<Integer, String> processes;
+
+        public Kill(Map<Integer, String> processes) {
+            this.processes = processes;
+        }
+
+        public Void call() throws IOException {
+            List<OSProcess> targets = new ArrayList<OSProcess>();
+            for (OSProcess p : ProcessTree.get()) {
+                String owner = processes.get(p.getPid());
+                if (owner != null && owner.equals(p.getEnvironmentVariables().get(MARKER))) {
+                    targets.add(p);
+                }
+            }
+            try {
+                for (OSProcess p : targets) {
+                    // SIGTERM, which mongod handles with a clean shutdown that releases its lock file
+                    p.kill();
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while stopping orphaned mongod: " + e);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.FilePath;
+import hudson.Proc;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ProcessTree;
+import hudson.util.ProcessTree.OSProcess;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A mongod started by {@link MongoBuildWrapper}, and what has to be released once it stops.
+ */
+public class MongoProcess {
+
+    /**
+     * How long (in milliseconds) to wait for a forked mongod to exit after SIGTERM.
+     */
+    public static long STOP_TIMEOUT = Long.getLong(MongoProcess.class.getName() + ".stopTimeout", 60 * 1000);
+
+    private static final List<MongoProcess> active = new CopyOnWriteArrayList<MongoProcess>();
+
+    private final String owner;
+
+    private final String node;
+
+    private final String port;
+
+    private final FilePath dbpath;
+
+    private final FilePath socket;
+
+    private volatile Proc proc;
+
+    private volatile FilePath pidfile;
+
+    private volatile int pid;
+
+    private volatile boolean onScratchVolume;
+
+    private volatile MongoLogRotation.Watcher logWatcher;
+
+    private final List<BeforeStop> beforeStop = new CopyOnWriteArrayList<BeforeStop>();
+
+    public MongoProcess(String owner, String node, String port, FilePath dbpath, FilePath socket) {
+        this.owner = owner;
+        this.node = node;
+        this.port = port;
+        this.dbpath = dbpath;
+        this.socket = socket;
+    }
+
+    /**
+     * <tt>JOB_FULL_NAME#BUILD_NUMBER</tt> of the build that started mongod.
+     *
+     * @see MongoOrphanReaper#MARKER
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Name of the node mongod runs on.
+     */
+    public String getNode() {
+        return node;
+    }
+
+    public String getPort() {
+        return port;
+    }
+
+    public FilePath getDbpath() {
+        return dbpath;
+    }
+
+    /**
+     * The Unix domain socket mongod listens on, or null.
+     */
+    public FilePath getSocket() {
+        return socket;
+    }
+
+    public Proc getProc() {
+        return proc;
+    }
+
+    void setProc(Proc proc) {
+        this.proc = proc;
+        active.add(this);
+    }
+
+    /**
+     * The file mongod writes its pid to when started with <tt>--fork</tt>, or null for a foreground child.
+     * {@link #getProc()} then only covers the parent that exits once the server is ready.
+     */
+    public FilePath getPidfile() {
+        return pidfile;
+    }
+
+    void setPidfile(FilePath pidfile) {
+        this.pidfile = pidfile;
+    }
+
+    /**
+     * Reads the pid of a forked mongod from its pidfile.
+     */
+    void readPid() throws IOException, InterruptedException {
+        pid = Integer.parseInt(pidfile.readToString().trim());
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    /**
+     * Whether mongod is still running.
+     */
+    public boolean isAlive() throws IOException, InterruptedException {
+        if (pidfile == null) {
+            return proc.isAlive();
+        }
+        return pid == 0 || dbpath.getChannel().call(new IsAlive(pid));
+    }
+
+    /**
+     * Whether the data directory was placed on a {@link MongoScratchVolumes scratch volume},
+     * in which case it doesn't outlive mongod.
+     */
+    public boolean isOnScratchVolume() {
+        return onScratchVolume;
+    }
+
+    void setOnScratchVolume(boolean onScratchVolume) {
+        this.onScratchVolume = onScratchVolume;
+    }
+
+    void setLogWatcher(MongoLogRotation.Watcher logWatcher) {
+        this.logWatcher = logWatcher;
+    }
+
+    /**
+     * Registers work to do while mongod is still running, right before it is stopped.
+     */
+    public void addBeforeStop(BeforeStop hook) {
+        beforeStop.add(hook);
+    }
+
+    /**
+     * Stops mongod, waits for it to exit and releases what it held.
+     *
+     * @param deleteDbpath
+     *      also delete the data directory
+     */
+    public void stop(TaskListener listener, boolean deleteDbpath) throws IOException, InterruptedException {
+        try {
+            for (BeforeStop hook : beforeStop) {
+                try {
+                    hook.beforeStop(listener);
+                } catch (IOException e) {
+                    e.printStackTrace(listener.error("Failed before stopping mongodb"));
+                }
+            }
+            // the agent may have reconnected since launch, so go through its current channel
+            VirtualChannel channel = channel();
+            if (pidfile != null) {
+                stopForked(channel, listener);
+            } else if (proc.isAlive()) {
+                MongoBuildWrapper.log(listener, "Killing mongodb process...");
+                proc.kill();
+            } else {
+                MongoBuildWrapper.log(listener, "Will not kill mongodb process as it is already dead.");
+            }
+            if (socket != null) {
+                new FilePath(channel, socket.getRemote()).getParent().deleteRecursive();
+            }
+            if (logWatcher != null) {
+                MongoBuildWrapper.log(listener, "Compressing mongodb.log...");
+                logWatcher.finish();
+            }
+            if (deleteDbpath) {
+                MongoBuildWrapper.log(listener, "Deleting " + dbpath.getRemote());
+                new FilePath(channel, dbpath.getRemote()).deleteRecursive();
+            }
+        } finally {
+            active.remove(this);
+        }
+    }
+
+    /**
+     * The channel to the node mongod runs on, falling back to the one it was launched through if the node is offline.
+     */
+    private VirtualChannel channel() {
+        Computer c = Hudson.getInstance().getComputer(node);
+        VirtualChannel channel = c == null ? null : c.getChannel();
+        return channel != null ? channel : dbpath.getChannel();
+    }
+
+    private void stopForked(VirtualChannel channel, TaskListener listener) throws IOException, InterruptedException {
+        FilePath f = new FilePath(channel, pidfile.getRemote());
+        if (pid == 0 && f.exists()) {
+            pid = Integer.parseInt(f.readToString().trim());
+        }
+        if (pid == 0) {
+            MongoBuildWrapper.log(listener, "Will not kill mongodb process as it never wrote " + pidfile.getRemote());
+            return;
+        }
+        MongoBuildWrapper.log(listener, "Stopping forked mongodb process (pid " + pid + ")...");
+        if (!channel.call(new Terminate(pid, owner, STOP_TIMEOUT))) {
+            MongoBuildWrapper.log(listener, "mongodb process did not exit within " + STOP_TIMEOUT / 1000 + "s");
+        }
+        f.delete();
+    }
+
+    private static class IsAlive implements Callable<Boolean, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int pid;
+
+        public IsAlive(int pid) {
+            this.pid = pid;
+        }
+
+        public Boolean call() {
+            return ProcessTree.get().get(pid) != null;
+        }
+    }
+
+    /**
+     * Sends SIGTERM to a forked mongod and waits for it to exit.
+     * Only processes carrying the {@link MongoOrphanReaper#MARKER} of the build are touched, in case the pid got reused.
+     */
+    private static class Terminate implements Callable<Boolean, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int pid;
+
+        private final String owner;
+
+        private final long timeout;
+
+        public Terminate(int pid, String owner, long timeout) {
+            this.pid = pid;
+            this.owner = owner;
+            this.timeout = timeout;
+        }
+
+        public Boolean call() throws IOException {
+            OSProcess p = ProcessTree.get().get(pid);
+            if (p == null || !owner.equals(p.getEnvironmentVariables().get(MongoOrphanReaper.MARKER))) {
+                return true;
+            }
+            try {
+                p.kill();
+                long end = System.currentTimeMillis() + timeout;
+                while (ProcessTree.get().get(pid) != null) {
+                    if (System.currentTimeMillis() > end) {
+                        return false;
+                    }
+                    Thread.sleep(200);
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while stopping mongod: " + e);
+            }
+            return true;
+        }
+    }
+
+    public interface BeforeStop {
+        void beforeStop(TaskListener listener) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Processes started on the given node that haven't been stopped yet.
+     */
+    public static List<MongoProcess> active(String node) {
+        List<MongoProcess> r = new ArrayList<MongoProcess>();
+        for (MongoProcess p : active) {
+            if (p.node.equals(node)) {
+                r.add(p);
+            }
+        }
+        return r;
+    }
+}
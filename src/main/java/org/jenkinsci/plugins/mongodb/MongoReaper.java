@@ -0,0 +1,99 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.LogTaskListener;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops mongod processes in the background, so builds finish and free their executor
+ * without waiting for mongod to shut down and its data directory to be deleted.
+ *
+ * <p>
+ * While a process is being reaped, its data directory and port are tracked per node, and
+ * {@link #awaitRelease(String, FilePath, String, TaskListener)} lets the next build that
+ * needs either of them wait until they are released.
+ */
+public final class MongoReaper {
+
+    private static final Logger LOGGER = Logger.getLogger(MongoReaper.class.getName());
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory());
+
+    /**
+     * Pending shutdowns, keyed by the data directories and ports they hold.
+     */
+    private static final Map<String, Future<?>> pending = new ConcurrentHashMap<String, Future<?>>();
+
+    private MongoReaper() {}
+
+    /**
+     * Stops the process in the background.
+     *
+     * @param deleteDbpath
+     *      whether to delete its data directory once it has exited, like {@link MongoProcess#stop(TaskListener, boolean)}
+     */
+    public static Future<?> reap(final MongoProcess mongod, final boolean deleteDbpath) {
+        final String dbpathKey = dbpathKey(mongod.getNode(), mongod.getDbpath());
+        final String portKey = portKey(mongod.getNode(), mongod.getPort());
+
+        Future<?> future;
+        synchronized (pending) {
+            future = executor.submit(new Runnable() {
+                public void run() {
+                    TaskListener listener = new LogTaskListener(LOGGER, Level.FINE);
+                    try {
+                        mongod.stop(listener, deleteDbpath);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, String.format("Failed to stop mongod on %s using %s", mongod.getNode(), mongod.getDbpath()), e);
+                    } finally {
+                        synchronized (pending) {
+                            pending.remove(dbpathKey);
+                            pending.remove(portKey);
+                        }
+                    }
+                }
+            });
+            pending.put(dbpathKey, future);
+            pending.put(portKey, future);
+        }
+        return future;
+    }
+
+    /**
+     * Waits until neither the data directory nor the port is held by a mongod being reaped.
+     */
+    public static void awaitRelease(String node, FilePath dbpath, String port, TaskListener listener) throws InterruptedException {
+        await(pending.get(dbpathKey(node, dbpath)), "data directory " + dbpath.getRemote(), listener);
+        await(pending.get(portKey(node, port)), "port " + port, listener);
+    }
+
+    private static void await(Future<?> future, String what, TaskListener listener) throws InterruptedException {
+        if (future == null || future.isDone()) {
+            return;
+        }
+        MongoBuildWrapper.log(listener, String.format("Waiting for previous mongodb process to release %s...", what));
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            // logged by the reaper
+        }
+    }
+
+    private static String dbpathKey(String node, FilePath dbpath) {
+        return node + ":dbpath:" + dbpath.getRemote();
+    }
+
+    private static String portKey(String node, String port) {
+        return node + ":port:" + port;
+    }
+}
@@ -0,0 +1,164 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Candidate volumes for the default data directory of mongod on a node,
+ * e.g. local NVMe or tmpfs instead of a network-backed workspace.
+ *
+ * <p>
+ * Before launch, {@link MongoBuildWrapper} picks the volume with the highest priority that
+ * has at least {@link #getMinFreeMB()} free, preferring volumes used by fewer running
+ * instances among those of equal priority. It falls back to the workspace if none qualifies.
+ * Only applies when the job leaves the data directory empty.
+ */
+public class MongoScratchVolumes extends NodeProperty<Node> {
+
+    private final List<Volume> volumes;
+
+    private final int minFreeMB;
+
+    @DataBoundConstructor
+    public MongoScratchVolumes(List<Volume> volumes, int minFreeMB) {
+        this.volumes = volumes == null ? new ArrayList<Volume>() : new ArrayList<Volume>(volumes);
+        this.minFreeMB = minFreeMB;
+    }
+
+    public List<Volume> getVolumes() {
+        return Collections.unmodifiableList(volumes);
+    }
+
+    /**
+     * Free space (in megabytes) a volume needs to be picked.
+     */
+    public int getMinFreeMB() {
+        return minFreeMB;
+    }
+
+    /**
+     * Returns the scratch volume settings of the node, or the global ones.
+     */
+    public static MongoScratchVolumes of(Node node) {
+        MongoScratchVolumes r = node.getNodeProperties().get(MongoScratchVolumes.class);
+        if (r == null) {
+            r = Hudson.getInstance().getGlobalNodeProperties().get(MongoScratchVolumes.class);
+        }
+        return r;
+    }
+
+    /**
+     * Picks a volume for a new instance.
+     *
+     * @param channel
+     *      channel to the node
+     * @param running
+     *      instances already running on the node
+     * @return
+     *      the chosen volume, or null if none qualifies
+     */
+    public FilePath select(VirtualChannel channel, List<MongoProcess> running, TaskListener listener) throws IOException, InterruptedException {
+        Volume best = null;
+        long bestFree = 0;
+        int bestUsage = 0;
+        for (Volume v : volumes) {
+            FilePath path = new FilePath(channel, v.getPath());
+            long free = path.act(new UsableSpace());
+            if (free < 0) {
+                MongoBuildWrapper.log(listener, String.format("Skipping %s: not a directory", v.getPath()));
+                continue;
+            }
+            if (free < minFreeMB * 1024L * 1024L) {
+                MongoBuildWrapper.log(listener, String.format("Skipping %s: %dMB free", v.getPath(), free / 1024 / 1024));
+                continue;
+            }
+            int usage = 0;
+            for (MongoProcess p : running) {
+                if (isUnder(p.getDbpath().getRemote(), path.getRemote())) {
+                    usage++;
+                }
+            }
+            if (best == null
+                    || v.getPriority() > best.getPriority()
+                    || v.getPriority() == best.getPriority() && (usage < bestUsage || usage == bestUsage && free > bestFree)) {
+                best = v;
+                bestFree = free;
+                bestUsage = usage;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        MongoBuildWrapper.log(listener, String.format("Using scratch volume %s (priority %d, %dMB free, %d other instances)",
+                best.getPath(), best.getPriority(), bestFree / 1024 / 1024, bestUsage));
+        return new FilePath(channel, best.getPath());
+    }
+
+    /**
+     * Whether a path lies in a directory, so that <tt>/mnt/ab</tt> doesn't count as being in <tt>/mnt/a</tt>.
+     */
+    static boolean isUnder(String path, String dir) {
+        if (dir.endsWith("/") || dir.endsWith("\\")) {
+            return path.startsWith(dir);
+        }
+        return path.startsWith(dir + "/") || path.startsWith(dir + "\\");
+    }
+
+    public static class Volume {
+
+        private final String path;
+
+        private final int priority;
+
+        @DataBoundConstructor
+        public Volume(String path, int priority) {
+            this.path = path;
+            this.priority = priority;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Higher is preferred.
+         */
+        public int getPriority() {
+            return priority;
+        }
+    }
+
+    /**
+     * Usable space of a directory, or -1 if it isn't one.
+     */
+    private static class UsableSpace implements FileCallable<Long> {
+
+        public Long invoke(File f, VirtualChannel channel) {
+            return f.isDirectory() ? f.getUsableSpace() : -1L;
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends NodePropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return "MongoDB scratch volumes";
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.AbortException;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Computer;
+import hudson.remoting.Callable;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Starts a local sharded cluster instead of a standalone mongod: a config server replica set,
+ * {@link #getShards()} shard replica sets and a mongos on the port of the {@link MongoBuildWrapper}.
+ *
+ * <p>
+ * All mongod processes are launched at once. Each replica set is initiated as soon as its own
+ * members accept connections, mongos is started as soon as the config servers have a primary,
+ * and the build starts once the cluster lists every shard. The components are exported like
+ * named instances, e.g. <tt>MONGODB_MONGOS_URI</tt>, <tt>MONGODB_CFG0_PORT</tt> or
+ * <tt>MONGODB_SHARD1_0_PORT</tt>.
+ */
+public class MongoShardedCluster implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * How long (in milliseconds) to wait for a primary to be elected, and for the shards to be added.
+     */
+    public static int SETUP_TIMEOUT = Integer.getInteger(MongoShardedCluster.class.getName() + ".setupTimeout", 60 * 1000);
+
+    private final int shards;
+
+    private final int replicas;
+
+    private final int configServers;
+
+    private final int basePort;
+
+    @DataBoundConstructor
+    public MongoShardedCluster(int shards, int replicas, int configServers, int basePort) {
+        this.shards = shards;
+        this.replicas = replicas;
+        this.configServers = configServers;
+        this.basePort = basePort;
+    }
+
+    /**
+     * Number of shards. 0 means 2.
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Members of each shard replica set. 0 means 1.
+     */
+    public int getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Members of the config server replica set. 0 means 1.
+     */
+    public int getConfigServers() {
+        return configServers;
+    }
+
+    /**
+     * First port of the config servers and shards, which use consecutive ports; 0 picks free ports on the node.
+     */
+    public int getBasePort() {
+        return basePort;
+    }
+
+    /**
+     * Starts the cluster and waits until all shards are added.
+     *
+     * @param allocated
+     *      ports of the config servers and shard members, from {@link #allocatePorts(Launcher, Set)}
+     * @param starting
+     *      receives every launched component, so the caller can stop them whatever happens
+     */
+    void start(MongoBuildWrapper wrapper, AbstractBuild<?, ?> build, final Launcher launcher, final BuildListener listener,
+            List<Integer> allocated, List<MongoBuildWrapper.Starting> starting) throws Exception {
+        int shardCount = getShardCount();
+        int replicaCount = getReplicaCount();
+        int configCount = getConfigServerCount();
+        List<Integer> ports = new ArrayList<Integer>(allocated);
+        MongoBuildWrapper.log(listener, String.format("Starting sharded cluster: %d config server(s), %d shard(s) of %d member(s)",
+                configCount, shardCount, replicaCount));
+
+        // every mongod is launched before any replica set is set up
+        List<MongoBuildWrapper.Starting> config = new ArrayList<MongoBuildWrapper.Starting>();
+        for (int i = 0; i < configCount; i++) {
+            MongoBuildWrapper.Starting s = wrapper.forComponent("cfg" + i, String.valueOf(ports.remove(0)), null,
+                    "--configsvr", "--replSet", "cfg").start(build, launcher, listener);
+            starting.add(s);
+            config.add(s);
+        }
+        List<List<MongoBuildWrapper.Starting>> shardMembers = new ArrayList<List<MongoBuildWrapper.Starting>>();
+        for (int i = 0; i < shardCount; i++) {
+            List<MongoBuildWrapper.Starting> members = new ArrayList<MongoBuildWrapper.Starting>();
+            for (int j = 0; j < replicaCount; j++) {
+                MongoBuildWrapper.Starting s = wrapper.forComponent("shard" + i + "-" + j, String.valueOf(ports.remove(0)), null,
+                        "--shardsvr", "--replSet", "shard" + i).start(build, launcher, listener);
+                starting.add(s);
+                members.add(s);
+            }
+            shardMembers.add(members);
+        }
+
+        final String shell = config.get(0).mongo.getShellExecutable(launcher);
+        Future<String> configSet = initiate("cfg", true, config, shell, launcher, listener);
+        List<Future<String>> shardSets = new ArrayList<Future<String>>();
+        for (int i = 0; i < shardCount; i++) {
+            shardSets.add(initiate("shard" + i, false, shardMembers.get(i), shell, launcher, listener));
+        }
+
+        // mongos only needs the config servers, so it starts while the shards are still electing
+        String mongosPort = StringUtils.defaultIfEmpty(wrapper.getPort(), "27017");
+        MongoBuildWrapper.Starting mongos = wrapper.forComponent("mongos", mongosPort, configSet.get()).start(build, launcher, listener);
+        starting.add(mongos);
+        if (!mongos.ready.get()) {
+            throw new IOException("mongos did not start");
+        }
+
+        List<String> shardSpecs = new ArrayList<String>();
+        for (Future<String> f : shardSets) {
+            shardSpecs.add(f.get());
+        }
+        StringBuilder script = new StringBuilder("var shards = [");
+        for (String spec : shardSpecs) {
+            script.append('\'').append(spec).append("',");
+        }
+        script.append("];")
+            .append("shards.forEach(function(s) {")
+            .append("  var r = sh.addShard(s);")
+            .append("  if (!r.ok) { print(tojson(r)); quit(1); }")
+            .append("});")
+            .append("var deadline = new Date().getTime() + ").append(SETUP_TIMEOUT).append(";")
+            .append("while (db.getSiblingDB('config').shards.count() < shards.length) {")
+            .append("  if (new Date().getTime() > deadline) { print('Shards were not added in time'); quit(1); }")
+            .append("  sleep(200);")
+            .append("}");
+        runScript(shell, mongosPort, script.toString(), launcher, listener);
+        MongoBuildWrapper.log(listener, String.format("Sharded cluster ready at mongodb://localhost:%s with shards %s",
+                mongosPort, StringUtils.join(shardSpecs, ", ")));
+    }
+
+    /**
+     * Initiates a replica set once all its members accept connections, and waits for a primary.
+     *
+     * @return the replica set as a seed list, e.g. <tt>shard0/localhost:27018,localhost:27019</tt>
+     */
+    private Future<String> initiate(final String name, final boolean configsvr, final List<MongoBuildWrapper.Starting> members,
+            final String shell, final Launcher launcher, final BuildListener listener) {
+        return Computer.threadPoolForRemoting.submit(new java.util.concurrent.Callable<String>() {
+            public String call() throws Exception {
+                List<String> hosts = new ArrayList<String>();
+                StringBuilder memberDocs = new StringBuilder();
+                for (int i = 0; i < members.size(); i++) {
+                    MongoBuildWrapper.Starting m = members.get(i);
+                    if (!m.ready.get()) {
+                        throw new IOException("Member " + i + " of replica set " + name + " did not start");
+                    }
+                    String host = "localhost:" + m.mongod.getPort();
+                    hosts.add(host);
+                    memberDocs.append(String.format("{_id: %d, host: '%s'},", i, host));
+                }
+                String script = String.format(
+                    "var r = rs.initiate({_id: '%s', %smembers: [%s]});" +
+                    "if (!r.ok) { print(tojson(r)); quit(1); }" +
+                    "var deadline = new Date().getTime() + %d;" +
+                    "while (!db.isMaster().ismaster) {" +
+                    "  if (new Date().getTime() > deadline) { print('No primary elected in %s'); quit(1); }" +
+                    "  sleep(200);" +
+                    "}",
+                    name, configsvr ? "configsvr: true, " : "", memberDocs, SETUP_TIMEOUT, name);
+                runScript(shell, members.get(0).mongod.getPort(), script, launcher, listener);
+                MongoBuildWrapper.log(listener, "Replica set " + name + " has a primary");
+                return name + "/" + StringUtils.join(hosts, ",");
+            }
+        });
+    }
+
+    private static void runScript(String shell, String port, String script, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+        int r = launcher.launch()
+            .cmds(shell, "--quiet", "--port", port, "admin", "--eval", script)
+            .stdout(listener)
+            .join();
+        if (r != 0) {
+            throw new IOException("mongo shell on port " + port + " failed with exit code " + r);
+        }
+    }
+
+    private int getShardCount() {
+        return shards > 0 ? shards : 2;
+    }
+
+    private int getReplicaCount() {
+        return replicas > 0 ? replicas : 1;
+    }
+
+    private int getConfigServerCount() {
+        return configServers > 0 ? configServers : 1;
+    }
+
+    /**
+     * Picks the ports of the config servers and shard members, before anything is launched.
+     *
+     * @param taken
+     *      ports of mongos and the named instances
+     * @throws AbortException
+     *      if the range starting at {@link #getBasePort()} overlaps one of them
+     */
+    List<Integer> allocatePorts(Launcher launcher, Set<String> taken) throws IOException, InterruptedException {
+        int count = getConfigServerCount() + getShardCount() * getReplicaCount();
+        List<Integer> r = new ArrayList<Integer>();
+        if (basePort > 0) {
+            for (int i = 0; i < count; i++) {
+                if (taken.contains(String.valueOf(basePort + i))) {
+                    throw new AbortException(String.format("Port %d of the sharded cluster (%d-%d) is already used by mongos or an instance",
+                            basePort + i, basePort, basePort + count - 1));
+                }
+                r.add(basePort + i);
+            }
+            return r;
+        }
+        // ask for extra ports, in case some are configured for instances that aren't running yet
+        for (int p : launcher.getChannel().call(new FreePorts(count + taken.size()))) {
+            if (r.size() < count && !taken.contains(String.valueOf(p))) {
+                r.add(p);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Finds free ports on the node by binding to port 0.
+     */
+    static class FreePorts implements Callable<ArrayList<Integer>, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int count;
+
+        public FreePorts(int count) {
+            this.count = count;
+        }
+
+        public ArrayList<Integer> call() throws IOException {
+            ArrayList<Integer> r = new ArrayList<Integer>();
+            List<ServerSocket> sockets = new ArrayList<ServerSocket>();
+            try {
+                // keep them all bound until the end, so the same port isn't handed out twice
+                for (int i = 0; i < count; i++) {
+                    ServerSocket s = new ServerSocket(0);
+                    sockets.add(s);
+                    r.add(s.getLocalPort());
+                }
+            } finally {
+                for (ServerSocket s : sockets) {
+                    s.close();
+                }
+            }
+            return r;
+        }
+    }
+}
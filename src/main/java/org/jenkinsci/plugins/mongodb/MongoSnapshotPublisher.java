@@ -0,0 +1,122 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_InvalidSnapshotName;
+import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_NoSuchDataDirectory;
+import static org.jenkinsci.plugins.mongodb.Messages.MongoDB_SnapshotRequiresForegroundStop;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.BuildableItemWithBuildWrappers;
+import hudson.model.Result;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.BuildStepMonitor;
+import hudson.tasks.Publisher;
+import hudson.tasks.Recorder;
+import hudson.util.FormValidation;
+
+import java.io.IOException;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Saves a seeded data directory as the next version of a {@link MongoSnapshots snapshot}.
+ *
+ * <p>
+ * Runs after the build wrappers are torn down, so mongod has shut down cleanly and the
+ * data directory is consistent.
+ */
+public class MongoSnapshotPublisher extends Recorder {
+
+    private final String name;
+
+    private final String dbpath;
+
+    private final int retain;
+
+    @DataBoundConstructor
+    public MongoSnapshotPublisher(String name, String dbpath, int retain) {
+        this.name = name;
+        this.dbpath = dbpath;
+        this.retain = retain;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Data directory to save, relative to the workspace; empty for the one the build wrapper
+     * exported as <tt>MONGODB_DBPATH</tt>, or <tt>data/db</tt>.
+     */
+    public String getDbpath() {
+        return dbpath;
+    }
+
+    /**
+     * Number of versions kept on the controller; 0 keeps all.
+     */
+    public int getRetain() {
+        return retain;
+    }
+
+    public BuildStepMonitor getRequiredMonitorService() {
+        return BuildStepMonitor.NONE;
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+        if (build.getResult() != null && build.getResult().isWorseThan(Result.UNSTABLE)) {
+            MongoBuildWrapper.log(listener, "Not saving snapshot " + name + " of a failed build");
+            return true;
+        }
+        if (!MongoSnapshots.isValidName(name)) {
+            listener.error(MongoDB_InvalidSnapshotName(name));
+            return false;
+        }
+        EnvVars env = build.getEnvironment(listener);
+        // MONGODB_DBPATH is absolute, which child() keeps as is
+        FilePath dir = build.getWorkspace().child(StringUtils.defaultIfEmpty(dbpath, StringUtils.defaultIfEmpty(env.get("MONGODB_DBPATH"), "data/db")));
+        if (!dir.isDirectory()) {
+            listener.error(MongoDB_NoSuchDataDirectory(dir.getRemote()));
+            return false;
+        }
+        // with asynchronous teardown, mongod may still be shutting down and about to delete the data directory
+        MongoBuildWrapper wrapper = build.getProject() instanceof BuildableItemWithBuildWrappers
+                ? ((BuildableItemWithBuildWrappers) build.getProject()).getBuildWrappersList().get(MongoBuildWrapper.class)
+                : null;
+        if (wrapper != null && wrapper.isAsyncTeardown()) {
+            listener.error(MongoDB_SnapshotRequiresForegroundStop());
+            return false;
+        }
+
+        MongoBuildWrapper.log(listener, "Saving " + dir.getRemote() + " as snapshot " + name);
+        MongoSnapshots.Snapshot snapshot = MongoSnapshots.get().save(name, dir, retain);
+        MongoBuildWrapper.log(listener, String.format("Saved snapshot %s (%d KB, md5 %s)",
+                snapshot, snapshot.getArchive().length() / 1024, snapshot.getChecksum()));
+        return true;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends BuildStepDescriptor<Publisher> {
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Save MongoDB data directory as snapshot";
+        }
+
+        public static FormValidation doCheckName(@QueryParameter String value) {
+            return MongoSnapshots.isValidName(value) ? FormValidation.ok() : FormValidation.error(MongoDB_InvalidSnapshotName(value));
+        }
+    }
+}
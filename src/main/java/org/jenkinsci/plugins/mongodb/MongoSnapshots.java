@@ -0,0 +1,394 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.FilePath.TarCompression;
+import hudson.Util;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Named, versioned snapshots of mongod data directories, kept on the controller and
+ * handed out to agents, so that seeded datasets are built once for the whole fleet.
+ *
+ * <p>
+ * Snapshots are saved by {@link MongoSnapshotPublisher} and restored into the data directory
+ * by {@link MongoBuildWrapper} before mongod starts. Agents keep the verified archives they
+ * downloaded, up to {@link #CACHE_BUDGET_MB}, so each version crosses the network once per agent.
+ *
+ * <pre>
+ * JENKINS_HOME/mongodb-snapshots/
+ *   &lt;name&gt;/
+ *     &lt;version&gt;.tgz         gzipped tar of the data directory
+ *     &lt;version&gt;.md5         checksum of the archive
+ * NODE_ROOT/mongodb-snapshots/
+ *   .lock                     held while the cache is used or changed
+ *   &lt;checksum&gt;.tgz          cached archive
+ * </pre>
+ */
+public class MongoSnapshots {
+
+    /**
+     * Disk budget of the cache on each agent, in megabytes.
+     */
+    public static long CACHE_BUDGET_MB = Long.getLong(MongoSnapshots.class.getName() + ".cacheBudgetMB", 4096);
+
+    /**
+     * Serializes the allocation of version numbers.
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * Serializes access to the cache between executors of the same agent JVM,
+     * as {@link FileLock} only guards against other processes.
+     */
+    private static final Object CACHE_LOCK = new Object();
+
+    private final File root;
+
+    public MongoSnapshots(File root) {
+        this.root = root;
+    }
+
+    public static MongoSnapshots get() {
+        return new MongoSnapshots(new File(Hudson.getInstance().getRootDir(), "mongodb-snapshots"));
+    }
+
+    /**
+     * Whether the name can be used as a directory name.
+     */
+    public static boolean isValidName(String name) {
+        return name != null && name.matches("[A-Za-z0-9_\\-.]+") && !name.startsWith(".");
+    }
+
+    public List<String> getNames() {
+        List<String> r = new ArrayList<String>();
+        String[] names = root.list();
+        if (names != null) {
+            for (String name : names) {
+                if (!getVersions(name).isEmpty()) {
+                    r.add(name);
+                }
+            }
+        }
+        Collections.sort(r);
+        return r;
+    }
+
+    /**
+     * Versions of a snapshot, oldest first.
+     */
+    public List<Integer> getVersions(String name) {
+        List<Integer> r = new ArrayList<Integer>();
+        if (!isValidName(name)) {
+            return r;
+        }
+        String[] files = new File(root, name).list();
+        if (files != null) {
+            for (String f : files) {
+                if (f.matches("[0-9]+\\.md5")) {
+                    r.add(Integer.parseInt(f.substring(0, f.length() - 4)));
+                }
+            }
+        }
+        Collections.sort(r);
+        return r;
+    }
+
+    /**
+     * Finds a snapshot.
+     *
+     * @param reference
+     *      <tt>name</tt> for the latest version, or <tt>name:version</tt>
+     * @return null if there's no such snapshot
+     */
+    public Snapshot resolve(String reference) throws IOException {
+        String name = reference.trim();
+        int version = -1;
+        int i = name.lastIndexOf(':');
+        if (i >= 0) {
+            try {
+                version = Integer.parseInt(name.substring(i + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            name = name.substring(0, i);
+        }
+        List<Integer> versions = getVersions(name);
+        if (versions.isEmpty()) {
+            return null;
+        }
+        if (version < 0) {
+            version = versions.get(versions.size() - 1);
+        } else if (!versions.contains(version)) {
+            return null;
+        }
+        File dir = new File(root, name);
+        String checksum = FileUtils.readFileToString(new File(dir, version + ".md5")).trim();
+        return new Snapshot(name, version, new File(dir, version + ".tgz"), checksum);
+    }
+
+    /**
+     * Saves a directory as the next version of a snapshot.
+     *
+     * @param retain
+     *      number of versions to keep; 0 keeps all
+     */
+    public Snapshot save(String name, FilePath dir, int retain) throws IOException, InterruptedException {
+        File snapshotDir = new File(root, name);
+        snapshotDir.mkdirs();
+        File tmp = File.createTempFile("snapshot", ".tmp", snapshotDir);
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            OutputStream out = new DigestOutputStream(new FileOutputStream(tmp), md5);
+            try {
+                // compressed on the agent, so only the archive crosses the network
+                dir.act(new Pack(new RemoteOutputStream(out)));
+            } finally {
+                out.close();
+            }
+            String checksum = Util.toHexString(md5.digest());
+
+            synchronized (LOCK) {
+                List<Integer> versions = getVersions(name);
+                int version = versions.isEmpty() ? 1 : versions.get(versions.size() - 1) + 1;
+                File archive = new File(snapshotDir, version + ".tgz");
+                if (!tmp.renameTo(archive)) {
+                    throw new IOException(String.format("Failed to rename %s to %s", tmp, archive));
+                }
+                // the checksum file marks the version as complete
+                FileUtils.writeStringToFile(new File(snapshotDir, version + ".md5"), checksum);
+
+                if (retain > 0) {
+                    versions.add(version);
+                    for (int v : versions.subList(0, Math.max(0, versions.size() - retain))) {
+                        new File(snapshotDir, v + ".md5").delete();
+                        new File(snapshotDir, v + ".tgz").delete();
+                    }
+                }
+                return new Snapshot(name, version, archive, checksum);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 is not available: " + e);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Unpacks a snapshot into a data directory on a node, through the cache of the node.
+     */
+    public void restore(Snapshot snapshot, Node node, FilePath dbpath, TaskListener listener) throws IOException, InterruptedException {
+        FilePath nodeRoot = node.getRootPath();
+        if (nodeRoot == null) {
+            throw new IOException("Node " + node.getDisplayName() + " is offline");
+        }
+        FilePath cache = nodeRoot.child("mongodb-snapshots");
+        String cached = snapshot.getChecksum() + ".tgz";
+        if (cache.act(new Unpack(cached, null, 0, dbpath.getRemote()))) {
+            MongoBuildWrapper.log(listener, "Restored cached snapshot " + snapshot + " into " + dbpath.getRemote());
+            return;
+        }
+
+        MongoBuildWrapper.log(listener, String.format("Downloading snapshot %s (%d KB)", snapshot, snapshot.getArchive().length() / 1024));
+        cache.mkdirs();
+        FilePath tmp = cache.createTempFile("snapshot", ".tmp");
+        try {
+            new FilePath(snapshot.getArchive()).copyTo(tmp);
+            String actual = tmp.digest();
+            if (!actual.equals(snapshot.getChecksum())) {
+                throw new IOException(String.format("Checksum mismatch for snapshot %s: expected %s, got %s", snapshot, snapshot.getChecksum(), actual));
+            }
+            cache.act(new Unpack(cached, tmp.getName(), CACHE_BUDGET_MB * 1024 * 1024, dbpath.getRemote()));
+        } finally {
+            tmp.delete();
+        }
+        MongoBuildWrapper.log(listener, "Restored snapshot " + snapshot + " into " + dbpath.getRemote());
+    }
+
+    /**
+     * A version of a snapshot on the controller.
+     */
+    public static final class Snapshot {
+
+        private final String name;
+
+        private final int version;
+
+        private final File archive;
+
+        private final String checksum;
+
+        public Snapshot(String name, int version, File archive, String checksum) {
+            this.name = name;
+            this.version = version;
+            this.archive = archive;
+            this.checksum = checksum;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public File getArchive() {
+            return archive;
+        }
+
+        /**
+         * MD5 of the archive.
+         */
+        public String getChecksum() {
+            return checksum;
+        }
+
+        @Override
+        public String toString() {
+            return name + ":" + version;
+        }
+    }
+
+    /**
+     * Writes a gzipped tar of a directory.
+     */
+    private static class Pack implements FileCallable<Void> {
+
+        private final OutputStream out;
+
+        public Pack(OutputStream out) {
+            this.out = out;
+        }
+
+        public Void invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            OutputStream gz = new GZIPOutputStream(out);
+            try {
+                new FilePath(dir).tar(gz, "**/*");
+            } finally {
+                gz.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Extracts a cached archive on the node itself, rather than streaming it through the controller.
+     *
+     * <p>
+     * Adding a downloaded archive, evicting old ones and extracting happen under a file lock on the cache,
+     * so a concurrent build on the node can't evict the archive while it is being extracted.
+     */
+    private static class Unpack implements FileCallable<Boolean> {
+
+        private final String archive;
+
+        private final String download;
+
+        private final long budget;
+
+        private final String target;
+
+        /**
+         * @param download
+         *      verified download to add to the cache as <tt>archive</tt>, or null to only use the cache
+         * @param budget
+         *      disk budget of the cache, applied when a download is added
+         */
+        public Unpack(String archive, String download, long budget, String target) {
+            this.archive = archive;
+            this.download = download;
+            this.budget = budget;
+            this.target = target;
+        }
+
+        /**
+         * @return false if the archive isn't cached and there is no download to add
+         */
+        public Boolean invoke(File cache, VirtualChannel channel) throws IOException, InterruptedException {
+            synchronized (CACHE_LOCK) {
+                FileLock lock = lock(cache);
+                try {
+                    File f = new File(cache, archive);
+                    if (f.exists()) {
+                        f.setLastModified(System.currentTimeMillis());
+                    } else if (download == null) {
+                        return false;
+                    } else {
+                        File tmp = new File(cache, download);
+                        if (!tmp.renameTo(f)) {
+                            throw new IOException(String.format("Failed to rename %s to %s", tmp, f));
+                        }
+                        evict(cache, budget, archive);
+                    }
+                    new FilePath(f).untar(new FilePath(new File(target)), TarCompression.GZIP);
+                    return true;
+                } finally {
+                    release(lock);
+                }
+            }
+        }
+    }
+
+    private static FileLock lock(File cache) throws IOException {
+        cache.mkdirs();
+        return new RandomAccessFile(new File(cache, ".lock"), "rw").getChannel().lock();
+    }
+
+    private static void release(FileLock lock) throws IOException {
+        lock.release();
+        lock.channel().close();
+    }
+
+    /**
+     * Deletes least recently used archives until the cache fits in the budget.
+     */
+    private static void evict(File cache, long budget, String keep) {
+        File[] archives = cache.listFiles();
+        if (archives == null) {
+            return;
+        }
+        long total = 0;
+        for (File f : archives) {
+            total += f.length();
+        }
+        Arrays.sort(archives, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long d = a.lastModified() - b.lastModified();
+                return d < 0 ? -1 : d > 0 ? 1 : 0;
+            }
+        });
+        for (File f : archives) {
+            if (total <= budget) {
+                break;
+            }
+            if (f.getName().equals(keep) || !f.getName().endsWith(".tgz")) {
+                continue;
+            }
+            total -= f.length();
+            f.delete();
+        }
+    }
+}
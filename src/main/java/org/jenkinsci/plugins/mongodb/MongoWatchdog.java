@@ -0,0 +1,250 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Executor;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Checks that mongod is still alive and answering while the build runs.
+ *
+ * <p>
+ * Every {@link #getInterval()} seconds the process is checked and pinged. If it has exited, or
+ * missed {@link #getFailures()} pings in a row, the build is marked as failed, the tail of the
+ * mongod log is copied to the build log, and the build is optionally aborted, instead of letting
+ * the tests hang on driver timeouts.
+ */
+public class MongoWatchdog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, new DaemonThreadFactory());
+
+    /**
+     * How long (in milliseconds) a ping may take.
+     */
+    public static int PING_TIMEOUT = Integer.getInteger(MongoWatchdog.class.getName() + ".pingTimeout", 2000);
+
+    private final int interval;
+
+    private final int failures;
+
+    private final boolean abort;
+
+    private final int tailLines;
+
+    @DataBoundConstructor
+    public MongoWatchdog(int interval, int failures, boolean abort, int tailLines) {
+        this.interval = interval;
+        this.failures = failures;
+        this.abort = abort;
+        this.tailLines = tailLines;
+    }
+
+    /**
+     * Seconds between checks. 0 means 5.
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Consecutive failed pings after which mongod is considered hung. 0 means 3.
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Whether the build is aborted, rather than only marked as failed.
+     */
+    public boolean isAbort() {
+        return abort;
+    }
+
+    /**
+     * Lines of the mongod log copied to the build log. 0 means 50.
+     */
+    public int getTailLines() {
+        return tailLines;
+    }
+
+    public Watch start(AbstractBuild<?, ?> build, MongoProcess mongod, FilePath logFile, BuildListener listener) {
+        return new Watch(build, mongod, logFile, listener);
+    }
+
+    /**
+     * Watches one running mongod. Stops watching right before mongod is stopped on purpose.
+     */
+    public final class Watch implements Runnable, MongoProcess.BeforeStop {
+
+        private final AbstractBuild<?, ?> build;
+
+        private final MongoProcess mongod;
+
+        private final FilePath logFile;
+
+        private final BuildListener listener;
+
+        private final ScheduledFuture<?> future;
+
+        private int missed;
+
+        private boolean done;
+
+        private Watch(AbstractBuild<?, ?> build, MongoProcess mongod, FilePath logFile, BuildListener listener) {
+            this.build = build;
+            this.mongod = mongod;
+            this.logFile = logFile;
+            this.listener = listener;
+            int period = interval > 0 ? interval : 5;
+            this.future = scheduler.scheduleWithFixedDelay(this, period, period, TimeUnit.SECONDS);
+        }
+
+        public synchronized void run() {
+            if (done) {
+                return;
+            }
+            try {
+                if (!mongod.isAlive()) {
+                    trip("mongod on port " + mongod.getPort() + " has exited");
+                    return;
+                }
+                if (mongod.getDbpath().getChannel().call(new Ping(mongod.getPort(), PING_TIMEOUT))) {
+                    missed = 0;
+                } else if (++missed >= (failures > 0 ? failures : 3)) {
+                    trip("mongod on port " + mongod.getPort() + " did not answer " + missed + " pings in a row");
+                }
+            } catch (Exception e) {
+                e.printStackTrace(listener.getLogger());
+            }
+        }
+
+        private void trip(String reason) throws IOException, InterruptedException {
+            done = true;
+            future.cancel(false);
+            listener.error("[MongoDB] " + reason);
+            if (logFile.exists()) {
+                int lines = tailLines > 0 ? tailLines : 50;
+                MongoBuildWrapper.log(listener, "Last " + lines + " lines of " + logFile.getRemote() + ":");
+                listener.getLogger().print(logFile.act(new Tail(lines)));
+            }
+            build.setResult(Result.FAILURE);
+            Executor executor = build.getExecutor();
+            if (abort && executor != null) {
+                MongoBuildWrapper.log(listener, "Aborting the build");
+                executor.interrupt();
+            }
+        }
+
+        public void beforeStop(TaskListener listener) {
+            future.cancel(false);
+            synchronized (this) {
+                done = true;
+            }
+        }
+    }
+
+    /**
+     * Whether mongod answers on its port, like the readiness check of {@link MongoBuildWrapper}.
+     */
+    private static class Ping implements Callable<Boolean, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String port;
+
+        private final int timeout;
+
+        public Ping(String port, int timeout) {
+            this.port = port;
+            this.timeout = timeout;
+        }
+
+        public Boolean call() {
+            HttpURLConnection conn = null;
+            try {
+                conn = (HttpURLConnection) new URL("http://localhost:" + port).openConnection();
+                conn.setConnectTimeout(timeout);
+                conn.setReadTimeout(timeout);
+                return conn.getResponseCode() == 200;
+            } catch (IOException e) {
+                return false;
+            } finally {
+                if (conn != null) {
+                    conn.disconnect();
+                }
+            }
+        }
+    }
+
+    /**
+     * Last lines of a file.
+     */
+    private static class Tail implements FileCallable<String> {
+
+        private final int lines;
+
+        public Tail(int lines) {
+            this.lines = lines;
+        }
+
+        public String invoke(File f, VirtualChannel channel) throws IOException {
+            return tail(f, lines);
+        }
+    }
+
+    /**
+     * Returns the last lines of a file, reading backwards so large logs stay cheap.
+     */
+    static String tail(File f, int lines) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            long length = raf.length();
+            long pos = length;
+            int newlines = 0;
+            byte[] buf = new byte[8192];
+            while (pos > 0) {
+                int n = (int) Math.min(buf.length, pos);
+                pos -= n;
+                raf.seek(pos);
+                raf.readFully(buf, 0, n);
+                for (int i = n - 1; i >= 0; i--) {
+                    // the newline ending the last line doesn't start a new one
+                    if (buf[i] == '\n' && pos + i != length - 1 && ++newlines == lines) {
+                        pos += i + 1;
+                        byte[] r = new byte[(int) (length - pos)];
+                        raf.seek(pos);
+                        raf.readFully(r);
+                        return new String(r);
+                    }
+                }
+            }
+            byte[] r = new byte[(int) length];
+            raf.seek(0);
+            raf.readFully(r);
+            return new String(r);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Saves the operations mongod recorded in its profiler as a gzipped file with one
+ * operation per line, ordered by time, for {@link MongoWorkloadReplayer}.
+ *
+ * <p>
+ * mongod has to be started with <tt>--profile 2</tt>. The profiler keeps a capped
+ * <tt>system.profile</tt> collection per database (1MB by default), so only the most
+ * recent operations of long suites are captured.
+ */
+public class MongoWorkloadCapture implements MongoProcess.BeforeStop {
+
+    /**
+     * Name of the capture file, in the workspace and in the build directory.
+     */
+    public static final String FILE_NAME = "mongodb-workload.jsonl.gz";
+
+    /**
+     * Prints every profiled operation of every database but <tt>local</tt>, oldest first.
+     */
+    private static final String DUMP_SCRIPT =
+        "var ops = [];" +
+        "db.getMongo().getDBNames().forEach(function(name) {" +
+        "  if (name == 'local') return;" +
+        "  db.getSiblingDB(name).system.profile.find().forEach(function(op) {" +
+        "    if (op.ns && op.ns.indexOf('.system.') < 0) ops.push(op);" +
+        "  });" +
+        "});" +
+        "ops.sort(function(a, b) { return a.ts - b.ts; });" +
+        "ops.forEach(function(op) { print(tojson(op, '', true)); });";
+
+    private final Launcher launcher;
+
+    private final String shell;
+
+    private final String port;
+
+    private final FilePath workspaceFile;
+
+    private final File buildFile;
+
+    public MongoWorkloadCapture(Launcher launcher, String shell, String port, FilePath workspaceFile, File buildFile) {
+        this.launcher = launcher;
+        this.shell = shell;
+        this.port = port;
+        this.workspaceFile = workspaceFile;
+        this.buildFile = buildFile;
+    }
+
+    public void beforeStop(TaskListener listener) throws IOException, InterruptedException {
+        MongoBuildWrapper.log(listener, "Saving captured workload to " + workspaceFile.getRemote());
+        OutputStream out = new GZIPOutputStream(workspaceFile.write());
+        int r;
+        try {
+            r = launcher.launch()
+                .cmds(shell, "--quiet", "--port", port, "--eval", DUMP_SCRIPT)
+                .stdout(out)
+                .stderr(listener.getLogger())
+                .join();
+        } finally {
+            out.close();
+        }
+        if (r != 0) {
+            MongoBuildWrapper.log(listener, "Failed to capture workload, exit code " + r);
+            return;
+        }
+        workspaceFile.copyTo(new FilePath(buildFile));
+    }
+}
@@ -0,0 +1,265 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Replays a workload saved by {@link MongoWorkloadCapture} against a freshly started mongod
+ * and reports latency percentiles per operation type.
+ */
+public class MongoWorkloadReplayer extends Builder {
+
+    /**
+     * Instance name of the replayed mongod, which isn't a valid {@link MongoInstance} name.
+     */
+    static final String REPLAY_NAME = ".replay";
+
+    private final String mongodbName;
+
+    private final String workload;
+
+    private final String port;
+
+    private final double speed;
+
+    private final int concurrency;
+
+    private final String snapshot;
+
+    @DataBoundConstructor
+    public MongoWorkloadReplayer(String mongodbName, String workload, String port, double speed, int concurrency, String snapshot) {
+        this.mongodbName = mongodbName;
+        this.workload = workload;
+        this.port = port;
+        this.speed = speed;
+        this.concurrency = concurrency;
+        this.snapshot = snapshot;
+    }
+
+    public String getMongodbName() {
+        return mongodbName;
+    }
+
+    /**
+     * Capture file, relative to the workspace.
+     */
+    public String getWorkload() {
+        return workload;
+    }
+
+    public String getPort() {
+        return port;
+    }
+
+    /**
+     * How many times faster than captured to replay; 0 replays as fast as possible.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Snapshot to restore before replaying, so the operations find the data they ran against.
+     */
+    public String getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+        FilePath workspace = build.getWorkspace();
+        FilePath capture = workspace.child(StringUtils.defaultIfEmpty(workload, MongoWorkloadCapture.FILE_NAME));
+        if (!capture.exists()) {
+            listener.error("No such workload: " + capture.getRemote());
+            return false;
+        }
+
+        FilePath ops = workspace.createTempFile("mongodb-workload", ".jsonl");
+        FilePath script = workspace.createTempFile("mongodb-replay", ".js");
+        try {
+            InputStream in = new GZIPInputStream(capture.read());
+            try {
+                ops.copyFrom(in);
+            } finally {
+                in.close();
+            }
+            script.copyFrom(MongoWorkloadReplayer.class.getResource("MongoWorkloadReplayer/replay.js"));
+
+            MongoBuildWrapper wrapper = new MongoBuildWrapper(mongodbName, null, null, null, 0);
+            EnvVars env = build.getEnvironment(listener);
+            String shell = wrapper.getMongoDB()
+                .forNode(Computer.currentComputer().getNode(), listener)
+                .forEnvironment(env)
+                .getShellExecutable(launcher);
+
+            // started as a named instance with its own log, data directory and port, so it doesn't collide
+            // with the mongod of a MongoDB build wrapper on the same job; the leading dot keeps the name
+            // out of reach of configured instances, which can't use dots
+            String effectivePort = StringUtils.isNotEmpty(port)
+                    ? port
+                    : String.valueOf(launcher.getChannel().call(new MongoShardedCluster.FreePorts(1)).get(0));
+            MongoBuildWrapper component = wrapper.forComponent(REPLAY_NAME, effectivePort, null);
+            component.setSnapshot(snapshot);
+            MongoBuildWrapper.Starting mongod = component.start(build, launcher, listener);
+            try {
+                mongod.awaitStart(build, launcher, listener);
+                return replay(launcher, shell, effectivePort, ops, script, listener);
+            } catch (IOException e) {
+                throw e;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Failed to start mongodb: " + e, e);
+            } finally {
+                mongod.mongod.stop(listener, true);
+            }
+        } finally {
+            ops.delete();
+            script.delete();
+        }
+    }
+
+    private boolean replay(Launcher launcher, String shell, String port, FilePath ops, FilePath script, TaskListener listener) throws IOException, InterruptedException {
+        int workers = Math.max(1, concurrency);
+        MongoBuildWrapper.log(listener, String.format("Replaying %s with %d connection(s) at %s speed", ops.getRemote(), workers,
+                speed > 0 ? speed + "x" : "maximum"));
+
+        Map<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+        Map<String, Integer> unreplayable = new TreeMap<String, Integer>();
+        List<Proc> procs = new ArrayList<Proc>();
+        for (int i = 0; i < workers; i++) {
+            String vars = String.format("var FILE='%s', WORKER=%d, WORKERS=%d, SPEED=%s;",
+                    ops.getRemote().replace("\\", "\\\\"), i, workers, speed);
+            procs.add(launcher.launch()
+                .cmds(shell, "--quiet", "--port", port, "--eval", vars, script.getRemote())
+                .stdout(new LatencyParser(histograms, unreplayable, listener))
+                .start());
+        }
+        boolean success = true;
+        for (Proc p : procs) {
+            success &= p.join() == 0;
+        }
+
+        LatencyHistogram all = new LatencyHistogram();
+        synchronized (histograms) {
+            for (Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+                MongoBuildWrapper.log(listener, String.format("%-8s %s", e.getKey(), e.getValue()));
+                all.add(e.getValue());
+            }
+        }
+        MongoBuildWrapper.log(listener, String.format("%-8s %s", "all", all));
+
+        synchronized (unreplayable) {
+            if (!unreplayable.isEmpty()) {
+                // the latencies above leave these out, so they don't describe the whole workload
+                int total = 0;
+                for (int n : unreplayable.values()) {
+                    total += n;
+                }
+                listener.error(String.format("%d operation(s) could not be replayed: %s", total, unreplayable));
+                return false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Records the "latency &lt;op&gt; &lt;micros&gt;" and "unreplayable &lt;op&gt; &lt;reason&gt;" lines printed by replay.js,
+     * and passes other lines to the build log. Only the first reason per operation type is logged, as a workload
+     * can hold thousands of operations failing the same way.
+     */
+    static class LatencyParser extends LineTransformationOutputStream {
+
+        private final Map<String, LatencyHistogram> histograms;
+
+        private final Map<String, Integer> unreplayable;
+
+        private final TaskListener listener;
+
+        public LatencyParser(Map<String, LatencyHistogram> histograms, Map<String, Integer> unreplayable, TaskListener listener) {
+            this.histograms = histograms;
+            this.unreplayable = unreplayable;
+            this.listener = listener;
+        }
+
+        @Override
+        protected void eol(byte[] b, int len) throws IOException {
+            String line = new String(b, 0, len).trim();
+            String[] tokens = line.split(" ", 3);
+            if (tokens.length == 3 && tokens[0].equals("latency")) {
+                LatencyHistogram h;
+                synchronized (histograms) {
+                    h = histograms.get(tokens[1]);
+                    if (h == null) {
+                        histograms.put(tokens[1], h = new LatencyHistogram());
+                    }
+                }
+                h.record(Long.parseLong(tokens[2]));
+            } else if (tokens.length == 3 && tokens[0].equals("unreplayable")) {
+                Integer n;
+                synchronized (unreplayable) {
+                    n = unreplayable.get(tokens[1]);
+                    unreplayable.put(tokens[1], n == null ? 1 : n + 1);
+                }
+                if (n == null) {
+                    MongoBuildWrapper.log(listener, String.format("Could not replay %s: %s", tokens[1], tokens[2]));
+                }
+            } else if (line.length() > 0) {
+                listener.getLogger().println(line);
+            }
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Replay MongoDB workload";
+        }
+
+        public ListBoxModel doFillMongodbNameItems() {
+            return Hudson.getInstance().getDescriptorByType(MongoBuildWrapper.DescriptorImpl.class).doFillMongodbNameItems();
+        }
+
+        public FormValidation doCheckSnapshot(@QueryParameter String value) throws IOException {
+            return MongoBuildWrapper.DescriptorImpl.doCheckSnapshot(value);
+        }
+    }
+}
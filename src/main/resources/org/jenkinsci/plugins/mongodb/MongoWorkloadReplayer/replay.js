@@ -0,0 +1,90 @@
+// Replays a workload captured by MongoWorkloadCapture, one operation per line.
+// Expects FILE, WORKER, WORKERS and SPEED to be defined through --eval.
+// Worker N replays lines N, N + WORKERS, ...
+// With SPEED > 0, operations are spaced like they were captured, SPEED times faster.
+//
+// Every operation is timed on its own and printed as "latency <op> <micros>". The shell clock
+// only has millisecond resolution, so latencies are multiples of a millisecond.
+// Operations that can't be replayed are printed as "unreplayable <op> <reason>": inserts whose
+// document the profiler didn't record, operation types the replay doesn't know, and operations
+// that fail.
+
+// getmore and killcursors are replayed as part of the query that opened the cursor
+var COVERED = { getmore: true, killcursors: true };
+var WRITES = { insert: true, update: true, remove: true };
+
+// Depending on the mongod version, the profiler records the inserted document as "o" or "query",
+// or not at all. Inserts sent as an insert command are profiled, and replayed, as commands.
+function insertedDocument(op) {
+    if (op.o) return op.o;
+    if (op.query && !op.query.query) return op.query;
+    return null;
+}
+
+// parse everything up front so it doesn't count against the operations
+var lines = cat(FILE).split("\n");
+var ops = [];
+var origin = null;
+for (var i = 0; i < lines.length; i++) {
+    if (!lines[i]) continue;
+    var op = eval("(" + lines[i] + ")");
+    var ts = op.ts ? op.ts.getTime() : 0;
+    if (origin == null) origin = ts;
+    if (i % WORKERS != WORKER) continue;
+
+    var dot = op.ns.indexOf(".");
+    op.target = db.getSiblingDB(op.ns.substring(0, dot));
+    op.coll = op.target.getCollection(op.ns.substring(dot + 1));
+    op.filter = op.query && op.query.query ? op.query.query : op.query;
+    op.delay = ts - origin;
+    ops.push(op);
+}
+
+var start = new Date().getTime();
+for (var i = 0; i < ops.length; i++) {
+    var op = ops[i];
+    if (COVERED.hasOwnProperty(op.op)) continue;
+
+    var run;
+    if (op.op == "query") {
+        run = function(op) { op.coll.find(op.filter).itcount(); };
+    } else if (op.op == "insert") {
+        var doc = insertedDocument(op);
+        if (doc == null) {
+            print("unreplayable insert document not recorded by the profiler");
+            continue;
+        }
+        run = function(op) { op.coll.insert(doc); };
+    } else if (op.op == "update") {
+        run = function(op) { op.coll.update(op.filter, op.updateobj, op.upsert, op.multi); };
+    } else if (op.op == "remove") {
+        run = function(op) { op.coll.remove(op.filter); };
+    } else if (op.op == "command") {
+        run = function(op) {
+            var r = op.target.runCommand(op.command);
+            if (!r.ok) throw r.errmsg;
+        };
+    } else {
+        print("unreplayable " + op.op + " unknown operation type");
+        continue;
+    }
+
+    if (SPEED > 0) {
+        var wait = start + op.delay / SPEED - new Date().getTime();
+        if (wait > 0) sleep(wait);
+    }
+
+    var t0 = new Date().getTime();
+    try {
+        run(op);
+        // writes are unacknowledged by the shell of older mongod versions, so wait for them like a driver would
+        if (WRITES.hasOwnProperty(op.op)) {
+            var err = op.target.getLastError();
+            if (err) throw err;
+        }
+    } catch (e) {
+        print("unreplayable " + op.op + " " + e);
+        continue;
+    }
+    print("latency " + op.op + " " + (new Date().getTime() - t0) * 1000);
+}
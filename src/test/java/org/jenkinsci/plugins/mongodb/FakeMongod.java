@@ -0,0 +1,122 @@
+package org.jenkinsci.plugins.mongodb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.BindException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for mongod used by {@link StartupBenchmarkTest}.
+ *
+ * <p>
+ * Understands the options {@link MongoBuildWrapper} passes (<tt>--port</tt>, <tt>--logpath</tt>,
+ * <tt>--unixSocketPrefix</tt>, ...), answers the HTTP readiness check on its port and
+ * simulates misbehaviour through system properties:
+ * <dl>
+ *   <dt>fake.startupDelay</dt><dd>milliseconds to wait before listening</dd>
+ *   <dt>fake.crash</dt><dd>exit right away with status 100</dd>
+ *   <dt>fake.shutdownDelay</dt><dd>milliseconds to wait when asked to stop</dd>
+ * </dl>
+ * Like mongod, it exits with status 48 when its port is already taken.
+ */
+public class FakeMongod {
+
+    /**
+     * Creates a MongoDB home whose bin/mongod starts {@link FakeMongod} with the given JVM options,
+     * and whose bin/mongo succeeds when connecting to a socket file that exists.
+     */
+    public static File install(File home, String jvmOptions) throws Exception {
+        File classes = new File(FakeMongod.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        File java = new File(System.getProperty("java.home"), "bin/java");
+        script(new File(home, "bin/mongod"), String.format("exec \"%s\" %s -cp \"%s\" %s \"$@\"",
+                java, jvmOptions, classes, FakeMongod.class.getName()));
+        // invoked as: mongo --quiet --host <socket> --eval 1
+        script(new File(home, "bin/mongo"), "test -e \"$3\"");
+        return home;
+    }
+
+    private static void script(File file, String command) throws Exception {
+        file.getParentFile().mkdirs();
+        PrintStream out = new PrintStream(new FileOutputStream(file));
+        try {
+            out.printf("#!/bin/sh%n%s%n", command);
+        } finally {
+            out.close();
+        }
+        file.setExecutable(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(args[i], args[++i]);
+            } else {
+                options.put(args[i], "");
+            }
+        }
+
+        String logpath = options.get("--logpath");
+        final PrintStream log = logpath == null ? System.out : new PrintStream(new FileOutputStream(logpath, true), true);
+        int port = options.containsKey("--port") ? Integer.parseInt(options.get("--port")) : 27017;
+        log.println("fake mongod starting : pid=? port=" + port + " dbpath=" + options.get("--dbpath"));
+
+        if (Boolean.getBoolean("fake.crash")) {
+            log.println("exception in initAndListen, terminating");
+            System.exit(100);
+        }
+        Thread.sleep(Long.getLong("fake.startupDelay", 0));
+
+        ServerSocket server;
+        try {
+            server = new ServerSocket(port);
+        } catch (BindException e) {
+            log.println("listen(): bind() failed errno:98 Address already in use for socket: 0.0.0.0:" + port);
+            System.exit(48);
+            return;
+        }
+
+        final long shutdownDelay = Long.getLong("fake.shutdownDelay", 0);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                log.println("got signal, will terminate after current cmd ends");
+                try {
+                    Thread.sleep(shutdownDelay);
+                } catch (InterruptedException e) {
+                    // exit now
+                }
+                log.println("dbexit: really exiting now");
+            }
+        });
+
+        String socketPrefix = options.get("--unixSocketPrefix");
+        if (socketPrefix != null) {
+            new File(socketPrefix, "mongodb-" + port + ".sock").createNewFile();
+        }
+        log.println("waiting for connections on port " + port);
+
+        while (true) {
+            Socket s = server.accept();
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), "US-ASCII"));
+                String line;
+                while ((line = in.readLine()) != null && line.length() > 0) {
+                    // skip the request
+                }
+                OutputStream out = s.getOutputStream();
+                out.write("HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nok".getBytes("US-ASCII"));
+                out.flush();
+            } finally {
+                s.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void empty() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void small_values_are_exact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 50; i++) {
+            h.record(i);
+        }
+        assertEquals(25, h.getValueAtPercentile(50));
+        assertEquals(50, h.getValueAtPercentile(100));
+        assertEquals(25.5, h.getMean(), 0.001);
+    }
+
+    @Test
+    public void percentiles_within_precision() {
+        LatencyHistogram h = new LatencyHistogram();
+        Random random = new Random(1);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextGaussian() * 2 + 8);
+            h.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double p : new double[] { 50, 90, 99, 99.9 }) {
+            long expected = values[(int) Math.ceil(values.length * p / 100) - 1];
+            long actual = h.getValueAtPercentile(p);
+            assertTrue(p + ": " + actual + " vs " + expected, actual >= expected && actual <= expected * 1.02);
+        }
+    }
+
+    @Test
+    public void add() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(1000);
+        b.record(2000);
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(2000, a.getMax());
+    }
+}
@@ -0,0 +1,114 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.tools.ToolProperty;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Collections;
+
+import org.jvnet.hudson.test.CaptureEnvironmentBuilder;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+/**
+ * Runs {@link MongoBuildWrapper} against {@link FakeMongod} and checks what the build gets to see.
+ * Only runs on Unix, as the stand-in is started through a shell script.
+ */
+public class MongoBuildWrapperEnvironmentTest extends HudsonTestCase {
+
+    public void testExportedVariables() throws Exception {
+        if (Functions.isWindows()) return;
+        installStandIn("");
+
+        String port = freePort(), ordersPort = freePort();
+        FreeStyleProject p = createFreeStyleProject();
+        p.getBuildWrappersList().add(new MongoBuildWrapper("fake", null, port, null, 10000, true, null, false, false,
+                Collections.singletonList(new MongoInstance("orders", null, null, ordersPort, null, 10000)), false, null, null, null));
+        CaptureEnvironmentBuilder capture = new CaptureEnvironmentBuilder();
+        p.getBuildersList().add(capture);
+
+        FreeStyleBuild b = assertBuildStatusSuccess(p.scheduleBuild2(0));
+        EnvVars env = capture.getEnvVars();
+
+        assertEquals(port, env.get("MONGODB_PORT"));
+        assertEquals(b.getWorkspace().child("data/db").getRemote(), env.get("MONGODB_DBPATH"));
+        String socket = env.get("MONGODB_SOCKET");
+        assertTrue(socket, socket.startsWith("/tmp/jenkins-mongodb-") && socket.endsWith("/mongodb-" + port + ".sock"));
+        assertEquals("mongodb://" + socket.replace("/", "%2F"), env.get("MONGODB_SOCKET_URI"));
+        assertLogContains("MongoDB listening on:" + socket, b);
+        // the socket directory goes away with mongod
+        assertFalse(new File(socket).getParentFile().exists());
+
+        assertEquals(ordersPort, env.get("MONGODB_ORDERS_PORT"));
+        assertEquals(b.getWorkspace().child("data/orders/db").getRemote(), env.get("MONGODB_ORDERS_DBPATH"));
+        assertEquals("mongodb://localhost:" + ordersPort, env.get("MONGODB_ORDERS_URI"));
+    }
+
+    public void testSocketThatDoesNotAcceptConnections() throws Exception {
+        if (Functions.isWindows()) return;
+        FilePath home = installStandIn("");
+        home.child("bin/mongo").write("#!/bin/sh\nexit 1\n", null);
+
+        FreeStyleProject p = createFreeStyleProject();
+        p.getBuildWrappersList().add(new MongoBuildWrapper("fake", null, freePort(), null, 3000, true, null, false, false,
+                null, false, null, null, null));
+
+        FreeStyleBuild b = assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get());
+        assertLogContains("Filed to start mongodb", b);
+    }
+
+    public void testCrashIsNoticedBeforeTheTimeout() throws Exception {
+        if (Functions.isWindows()) return;
+        installStandIn("-Dfake.crash=true");
+
+        FreeStyleProject p = createFreeStyleProject();
+        p.getBuildWrappersList().add(new MongoBuildWrapper("fake", null, freePort(), null, 60000));
+
+        FreeStyleBuild b = assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get());
+        assertLogContains("mongod exited with code 100", b);
+        assertTrue("took " + b.getDuration() + "ms", b.getDuration() < 30000);
+    }
+
+    public void testSnapshotIsSavedFromOutsideScratchVolumes() throws Exception {
+        if (Functions.isWindows()) return;
+        installStandIn("");
+        File volume = createTmpDir();
+        hudson.getGlobalNodeProperties().add(new MongoScratchVolumes(
+                Collections.singletonList(new MongoScratchVolumes.Volume(volume.getPath(), 1)), 0));
+
+        FreeStyleProject p = createFreeStyleProject();
+        p.getBuildWrappersList().add(new MongoBuildWrapper("fake", null, freePort(), null, 10000));
+        CaptureEnvironmentBuilder capture = new CaptureEnvironmentBuilder();
+        p.getBuildersList().add(capture);
+        FreeStyleBuild b = assertBuildStatusSuccess(p.scheduleBuild2(0));
+        assertTrue(capture.getEnvVars().get("MONGODB_DBPATH").startsWith(volume.getPath()));
+
+        // scratch volumes are deleted when mongod stops, which is before the snapshot is saved
+        p.getPublishersList().add(new MongoSnapshotPublisher("seed", null, 0));
+        b = assertBuildStatusSuccess(p.scheduleBuild2(0));
+        assertEquals(b.getWorkspace().child("data/db").getRemote(), capture.getEnvVars().get("MONGODB_DBPATH"));
+        assertNotNull(MongoSnapshots.get().resolve("seed"));
+    }
+
+    private FilePath installStandIn(String jvmOptions) throws Exception {
+        FilePath home = new FilePath(FakeMongod.install(createTmpDir(), jvmOptions));
+        hudson.getDescriptorByType(MongoBuildWrapper.DescriptorImpl.class).setInstallations(
+                new MongoDBInstallation("fake", home.getRemote(), Collections.<ToolProperty<?>>emptyList(), null, 0));
+        return home;
+    }
+
+    private static String freePort() throws IOException {
+        ServerSocket s = new ServerSocket(0);
+        try {
+            return String.valueOf(s.getLocalPort());
+        } finally {
+            s.close();
+        }
+    }
+}
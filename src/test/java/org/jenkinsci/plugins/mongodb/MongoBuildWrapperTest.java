@@ -2,10 +2,15 @@ package org.jenkinsci.plugins.mongodb;
 
 import static java.lang.String.format;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import hudson.FilePath;
+import hudson.Functions;
 import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
 import hudson.remoting.Callable;
 import hudson.remoting.VirtualChannel;
 import hudson.util.ArgumentListBuilder;
@@ -176,4 +181,36 @@ public class MongoBuildWrapperTest {
     			args.toStringWithQuote());
     }
 
+
+    @Test
+    public void setupSocket_is_private_to_the_build() throws Exception {
+        if (Functions.isWindows()) return;
+        Launcher local = mock(Launcher.class);
+        MongoBuildWrapper wrapper = new MongoBuildWrapper("mongo", null, "1234", null, 0);
+
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        FilePath socket = wrapper.setupSocket(local, args, build("folder/job", 1));
+        FilePath other = wrapper.setupSocket(local, new ArgumentListBuilder(), build("folder/job", 2));
+
+        try {
+            assertEquals("mongodb-1234.sock", socket.getName());
+            assertTrue(socket.getParent().isDirectory());
+            assertEquals("--unixSocketPrefix " + socket.getParent().getRemote(), args.toStringWithQuote());
+            assertFalse(socket.getParent().equals(other.getParent()));
+            // sockaddr_un only holds about 100 characters
+            assertTrue(socket.getRemote().length() < 100);
+        } finally {
+            socket.getParent().deleteRecursive();
+            other.getParent().deleteRecursive();
+        }
+    }
+
+    private static AbstractBuild build(String job, int number) {
+        AbstractProject project = mock(AbstractProject.class);
+        when(project.getFullName()).thenReturn(job);
+        AbstractBuild build = mock(AbstractBuild.class);
+        when(build.getProject()).thenReturn(project);
+        when(build.getNumber()).thenReturn(number);
+        return build;
+    }
 }
@@ -0,0 +1,43 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static java.util.Arrays.asList;
+import static org.jenkinsci.plugins.mongodb.MongoCpuPlacement.assign;
+import static org.jenkinsci.plugins.mongodb.MongoCpuPlacement.formatCpuList;
+import static org.jenkinsci.plugins.mongodb.MongoCpuPlacement.numaNodeOf;
+import static org.jenkinsci.plugins.mongodb.MongoCpuPlacement.parseCpuList;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class MongoCpuPlacementTest {
+
+    @SuppressWarnings("unchecked")
+    private final List<List<Integer>> twoNodes = asList(parseCpuList("0-3"), parseCpuList("4-7"));
+
+    @Test
+    public void cpu_lists() {
+        assertEquals(asList(0, 1, 2, 3, 8, 10, 11), parseCpuList("0-3,8,10-11\n"));
+        assertEquals("0-3,8,10-11", formatCpuList(asList(11, 10, 8, 3, 2, 1, 0)));
+        assertEquals("5", formatCpuList(asList(5)));
+    }
+
+    @Test
+    public void divides_evenly_by_default() {
+        assertEquals(asList(0, 1), assign(twoNodes, 0, 4, 0));
+        assertEquals(asList(6, 7), assign(twoNodes, 3, 4, 0));
+    }
+
+    @Test
+    public void wraps_around() {
+        assertEquals(asList(4, 5, 6, 7), assign(twoNodes, 3, 4, 4));
+        assertEquals(asList(0, 1, 2, 3, 4, 5, 6, 7), assign(twoNodes, 1, 2, 16));
+    }
+
+    @Test
+    public void numa_node() {
+        assertEquals(1, numaNodeOf(twoNodes, asList(6, 7)));
+        assertEquals(-1, numaNodeOf(twoNodes, asList(3, 4)));
+    }
+}
@@ -0,0 +1,122 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import hudson.FilePath;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.For;
+
+@For(MongoDBInstallationStore.class)
+public class MongoDBInstallationStoreTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private MongoDBInstallationStore store;
+
+    private long budget;
+
+    private long grace;
+
+    @Before
+    public void init() {
+        store = new MongoDBInstallationStore(new FilePath(tempFolder.newFolder("store")));
+        budget = MongoDBInstallationStore.BUDGET_MB;
+        grace = MongoDBInstallationStore.EVICTION_GRACE;
+    }
+
+    @After
+    public void restore() {
+        MongoDBInstallationStore.BUDGET_MB = budget;
+        MongoDBInstallationStore.EVICTION_GRACE = grace;
+    }
+
+    @Test
+    public void install_and_lookup() throws Exception {
+        String url = archive("a.zip", "2.0.0");
+
+        assertNull(store.lookup(url));
+
+        FilePath home = store.install(url);
+        assertTrue(home.child("bin/mongod").exists());
+        assertEquals("mongodb-2.0.0", home.getName());
+        assertEquals(home, store.lookup(url));
+    }
+
+    @Test
+    public void identical_archives_share_one_copy() throws Exception {
+        String a = archive("a.zip", "2.0.0");
+        String b = archive("b.zip", "2.0.0");
+
+        assertEquals(store.install(a), store.install(b));
+    }
+
+    @Test
+    public void least_recently_used_is_evicted() throws Exception {
+        MongoDBInstallationStore.BUDGET_MB = 0;
+        MongoDBInstallationStore.EVICTION_GRACE = 0;
+
+        String a = archive("a.zip", "1.8.0");
+        String b = archive("b.zip", "2.0.0");
+
+        FilePath homeA = store.install(a);
+        FilePath homeB = store.install(b);
+
+        assertFalse(homeA.exists());
+        assertNull(store.lookup(a));
+        assertTrue(homeB.exists());
+        assertNotNull(store.lookup(b));
+    }
+
+    @Test
+    public void entries_in_use_are_not_evicted() throws Exception {
+        if (File.pathSeparatorChar != ':') return;
+        MongoDBInstallationStore.BUDGET_MB = 0;
+        MongoDBInstallationStore.EVICTION_GRACE = 0;
+
+        String a = archive("a.zip", "1.8.0");
+        String b = archive("b.zip", "2.0.0");
+
+        FilePath homeA = store.install(a);
+        // stands in for a long-running mongod started from the entry
+        Process p = new ProcessBuilder("sh", "-c", "sleep 60; true", homeA.child("bin/mongod").getRemote()).start();
+        try {
+            Thread.sleep(500);
+            store.install(b);
+
+            assertTrue(homeA.exists());
+            assertNotNull(store.lookup(a));
+        } finally {
+            p.destroy();
+        }
+    }
+
+    private String archive(String name, String version) throws IOException {
+        File file = new File(tempFolder.getRoot(), name);
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            ZipEntry entry = new ZipEntry("mongodb-" + version + "/bin/mongod");
+            entry.setTime(1000000000000L);
+            zip.putNextEntry(entry);
+            zip.write(version.getBytes());
+            zip.closeEntry();
+        } finally {
+            zip.close();
+        }
+        return file.toURI().toURL().toString();
+    }
+}
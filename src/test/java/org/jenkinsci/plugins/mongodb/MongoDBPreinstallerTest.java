@@ -0,0 +1,89 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.DumbSlave;
+import hudson.tools.ToolProperty;
+import hudson.util.OneShotEvent;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.jvnet.hudson.test.HudsonTestCase;
+
+public class MongoDBPreinstallerTest extends HudsonTestCase {
+
+    public void testInstallationsFor() throws Exception {
+        MongoDBInstallation everywhere = installation("everywhere", new MongoDBPreinstallProperty("", false));
+        MongoDBInstallation labelled = installation("labelled", new MongoDBPreinstallProperty("mongo", true));
+        MongoDBInstallation invalid = installation("invalid", new MongoDBPreinstallProperty("mongo &&", false));
+        MongoDBInstallation manual = new MongoDBInstallation("manual", "/opt/mongodb", Collections.<ToolProperty<?>>emptyList(), null, 0);
+        setInstallations(everywhere, labelled, invalid, manual);
+
+        DumbSlave mongo = createSlave(new LabelAtom("mongo"));
+        DumbSlave other = createSlave(new LabelAtom("other"));
+
+        assertEquals(names(everywhere, labelled), names(MongoDBPreinstaller.installationsFor(mongo)));
+        assertEquals(names(everywhere), names(MongoDBPreinstaller.installationsFor(other)));
+    }
+
+    public void testFailedInstallDoesNotBlockOnline() throws Exception {
+        setInstallations(new FailingInstallation());
+
+        // onOnline only queues the installation, so the agent comes online while it is still running
+        DumbSlave slave = createOnlineSlave();
+        FailingInstallation.started.block(10000);
+        assertTrue(FailingInstallation.started.isSignaled());
+        assertTrue(slave.toComputer().isOnline());
+
+        FailingInstallation.release.signal();
+        FreeStyleProject p = createFreeStyleProject();
+        p.setAssignedNode(slave);
+        assertBuildStatusSuccess(p.scheduleBuild2(0));
+        assertTrue(slave.toComputer().isOnline());
+    }
+
+    private void setInstallations(MongoDBInstallation... installations) {
+        hudson.getDescriptorByType(MongoBuildWrapper.DescriptorImpl.class).setInstallations(installations);
+    }
+
+    private static MongoDBInstallation installation(String name, MongoDBPreinstallProperty property) {
+        return new MongoDBInstallation(name, "/opt/" + name, Collections.singletonList(property), null, 0);
+    }
+
+    private static String names(MongoDBInstallation... installations) {
+        StringBuilder r = new StringBuilder();
+        for (MongoDBInstallation inst : installations) {
+            r.append(inst.getName()).append(' ');
+        }
+        return r.toString();
+    }
+
+    private static String names(List<MongoDBInstallation> installations) {
+        return names(installations.toArray(new MongoDBInstallation[installations.size()]));
+    }
+
+    /**
+     * An installation whose download hangs until released, then fails.
+     */
+    public static class FailingInstallation extends MongoDBInstallation {
+
+        static final OneShotEvent started = new OneShotEvent();
+
+        static final OneShotEvent release = new OneShotEvent();
+
+        public FailingInstallation() {
+            super("failing", "/opt/failing", Collections.singletonList(new MongoDBPreinstallProperty("", false)), null, 0);
+        }
+
+        @Override
+        public MongoDBInstallation forNode(Node node, TaskListener log) throws IOException, InterruptedException {
+            started.signal();
+            release.block();
+            throw new IOException("Download failed");
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MongoInstanceTest {
+
+    @Test
+    public void env_name() {
+        assertEquals("ORDERS", new MongoInstance("orders", null, null, "27018", null, 0).getEnvName());
+        assertEquals("ORDER_HISTORY", new MongoInstance("order-history", null, null, "27018", null, 0).getEnvName());
+    }
+
+    @Test
+    public void valid_names() {
+        assertTrue(MongoInstance.isValidName("orders"));
+        assertTrue(MongoInstance.isValidName("order_history-2"));
+        assertFalse(MongoInstance.isValidName(null));
+        assertFalse(MongoInstance.isValidName(""));
+        assertFalse(MongoInstance.isValidName("../orders"));
+        assertFalse(MongoInstance.isValidName("my orders"));
+    }
+
+    @Test
+    public void reserved_names() {
+        assertTrue(MongoInstance.isReservedName("cfg0"));
+        assertTrue(MongoInstance.isReservedName("shard1-2"));
+        assertTrue(MongoInstance.isReservedName("mongos"));
+        // would still clash in MONGODB_SHARD1_2_PORT
+        assertTrue(MongoInstance.isReservedName("SHARD1_2"));
+        assertFalse(MongoInstance.isReservedName("cfg"));
+        assertFalse(MongoInstance.isReservedName("shard1"));
+        assertFalse(MongoInstance.isReservedName("mongos2"));
+        assertFalse(MongoInstance.isReservedName("orders"));
+    }
+}
@@ -0,0 +1,42 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class MongoLoadResultTest {
+
+    @Test
+    public void summarizes_each_operation_and_all() {
+        TreeMap<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+        LatencyHistogram read = new LatencyHistogram();
+        LatencyHistogram update = new LatencyHistogram();
+        for (int i = 1; i <= 30; i++) {
+            read.record(i);
+        }
+        for (int i = 1; i <= 10; i++) {
+            update.record(40 + i);
+        }
+        histograms.put("read", read);
+        histograms.put("update", update);
+        histograms.put("insert", new LatencyHistogram());
+
+        MongoLoadResult r = new MongoLoadResult(histograms, 2000);
+
+        assertEquals(3, r.getSummaries().size());
+        assertNull(r.getSummary("insert"));
+        assertEquals(30, r.getSummary("read").getCount());
+        assertEquals(50, r.getSummary("update").getMax());
+        assertEquals(40, r.getSummary("all").getCount());
+        assertEquals(50, r.getSummary("all").getMax());
+        assertEquals(20.0, r.getThroughput(), 0.001);
+    }
+
+    @Test
+    public void no_elapsed_time() {
+        assertEquals(0.0, new MongoLoadResult(new TreeMap<String, LatencyHistogram>(), 0).getThroughput(), 0.001);
+    }
+}
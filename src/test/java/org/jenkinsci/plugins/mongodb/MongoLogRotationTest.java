@@ -0,0 +1,72 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hudson.FilePath;
+import hudson.model.BuildListener;
+import hudson.util.StreamTaskListener;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.For;
+import org.mockito.Mockito;
+
+@For(MongoLogRotation.class)
+public class MongoLogRotationTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private FilePath workspace;
+
+    private BuildListener listener;
+
+    @Before
+    public void init() {
+        workspace = new FilePath(tempFolder.newFolder("workspace"));
+        listener = Mockito.mock(BuildListener.class);
+        Mockito.when(listener.getLogger()).thenReturn(StreamTaskListener.fromStdout().getLogger());
+    }
+
+    @Test
+    public void finish_bundles_segments_of_the_build() throws Exception {
+        workspace.child("mongodb.log").write("current\n", null);
+        workspace.child("mongodb.log.2012-01-01T00-00-00").write("rotated\n", null);
+
+        new MongoLogRotation(1, 0).start(null, "mongo", "27017", workspace.child("mongodb.log"), listener).finish();
+
+        assertFalse(workspace.child("mongodb.log").exists());
+        assertEquals(0, workspace.list("mongodb.log.*").length);
+        FilePath[] bundles = workspace.list("mongodb.log-*.gz");
+        assertEquals(1, bundles.length);
+        InputStream in = new GZIPInputStream(bundles[0].read());
+        try {
+            assertEquals("rotated\ncurrent\n", IOUtils.toString(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void finish_keeps_newest_builds() throws Exception {
+        workspace.child("mongodb.log").write("current", null);
+        workspace.child("mongodb.log-2012-01-01T00-00-00.gz").write("oldest", null);
+        workspace.child("mongodb.log-2012-01-02T00-00-00.gz").write("older", null);
+
+        new MongoLogRotation(1, 2).start(null, "mongo", "27017", workspace.child("mongodb.log"), listener).finish();
+
+        List<FilePath> kept = Arrays.asList(workspace.list("mongodb.log-*.gz"));
+        assertEquals(2, kept.size());
+        assertFalse(kept.contains(workspace.child("mongodb.log-2012-01-01T00-00-00.gz")));
+        assertTrue(kept.contains(workspace.child("mongodb.log-2012-01-02T00-00-00.gz")));
+    }
+}
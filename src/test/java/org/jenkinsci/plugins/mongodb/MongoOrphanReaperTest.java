@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.util.OneShotEvent;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+import org.jvnet.hudson.test.HudsonTestCase;
+import org.jvnet.hudson.test.TestBuilder;
+
+public class MongoOrphanReaperTest extends HudsonTestCase {
+
+    public void testMalformedOwner() throws Exception {
+        createFreeStyleProject("test");
+
+        assertFalse(MongoOrphanReaper.isRunning("test"));
+        assertFalse(MongoOrphanReaper.isRunning("test#"));
+        assertFalse(MongoOrphanReaper.isRunning("test#abc"));
+    }
+
+    public void testUnknownProject() throws Exception {
+        assertFalse(MongoOrphanReaper.isRunning("missing#1"));
+    }
+
+    public void testFinishedBuild() throws Exception {
+        FreeStyleProject p = createFreeStyleProject("test");
+        FreeStyleBuild b = assertBuildStatusSuccess(p.scheduleBuild2(0));
+
+        assertFalse(MongoOrphanReaper.isRunning("test#" + b.getNumber()));
+        assertFalse(MongoOrphanReaper.isRunning("test#" + (b.getNumber() + 1)));
+    }
+
+    public void testRunningBuild() throws Exception {
+        final OneShotEvent started = new OneShotEvent();
+        final OneShotEvent release = new OneShotEvent();
+        FreeStyleProject p = createFreeStyleProject("test");
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                started.signal();
+                release.block();
+                return true;
+            }
+        });
+
+        Future<FreeStyleBuild> f = p.scheduleBuild2(0);
+        started.block();
+        try {
+            assertTrue(MongoOrphanReaper.isRunning("test#" + p.getLastBuild().getNumber()));
+        } finally {
+            release.signal();
+        }
+        FreeStyleBuild b = f.get();
+
+        assertFalse(MongoOrphanReaper.isRunning("test#" + b.getNumber()));
+    }
+}
@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.util.StreamTaskListener;
+
+import java.io.ByteArrayOutputStream;
+
+import org.jvnet.hudson.test.HudsonTestCase;
+
+/**
+ * Covers stopping a mongod started with <tt>--fork</tt>, which is only known by its pidfile.
+ */
+public class MongoProcessTest extends HudsonTestCase {
+
+    public void testReadPid() throws Exception {
+        MongoProcess mongod = forked("test#1");
+        mongod.getPidfile().write("1234\n", null);
+
+        mongod.readPid();
+
+        assertEquals(1234, mongod.getPid());
+    }
+
+    public void testNeverWrotePidfile() throws Exception {
+        MongoProcess mongod = forked("test#1");
+
+        String log = stop(mongod);
+
+        assertTrue(log, log.contains("Will not kill mongodb process as it never wrote " + mongod.getPidfile().getRemote()));
+    }
+
+    public void testStopsOwnProcess() throws Exception {
+        if (Functions.isWindows()) return;
+
+        MongoProcess mongod = forked("test#1");
+        Process p = daemon(mongod, "test#1");
+        try {
+            String log = stop(mongod);
+
+            assertTrue(log, log.contains("Stopping forked mongodb process"));
+            assertFalse(log, log.contains("did not exit"));
+            for (int i = 0; i < 10 && isRunning(p); i++) {
+                Thread.sleep(100);
+            }
+            assertFalse(isRunning(p));
+            assertFalse(mongod.getPidfile().exists());
+        } finally {
+            p.destroy();
+        }
+    }
+
+    public void testLeavesReusedPidAlone() throws Exception {
+        if (Functions.isWindows()) return;
+
+        // the pid now belongs to a process of another build
+        MongoProcess mongod = forked("test#1");
+        Process p = daemon(mongod, "test#2");
+        try {
+            stop(mongod);
+
+            Thread.sleep(500);
+            assertTrue(isRunning(p));
+        } finally {
+            p.destroy();
+        }
+    }
+
+    private MongoProcess forked(String owner) throws Exception {
+        FilePath dir = new FilePath(createTmpDir());
+        MongoProcess mongod = new MongoProcess(owner, "", "27017", dir.child("db"), null);
+        mongod.setPidfile(dir.child("mongodb.pid"));
+        return mongod;
+    }
+
+    /**
+     * Starts a process carrying the marker of the given build, which writes its pid to the pidfile of mongod.
+     */
+    private static Process daemon(MongoProcess mongod, String owner) throws Exception {
+        ProcessBuilder pb = new ProcessBuilder("sh", "-c", "echo $$ > \"$0\"; exec sleep 60", mongod.getPidfile().getRemote());
+        pb.environment().put(MongoOrphanReaper.MARKER, owner);
+        Process p = pb.start();
+        for (int i = 0; i < 100 && mongod.getPidfile().length() == 0; i++) {
+            Thread.sleep(100);
+        }
+        // give sh time to exec, so the pid is that of sleep
+        Thread.sleep(200);
+        return p;
+    }
+
+    private static String stop(MongoProcess mongod) throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        mongod.stop(new StreamTaskListener(log), false);
+        return log.toString();
+    }
+
+    private static boolean isRunning(Process p) {
+        try {
+            p.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class MongoReaperTest {
+
+    @Test
+    public void keeps_dbpath_unless_asked() throws Exception {
+        MongoProcess mongod = process("/tmp/keep", "27017");
+
+        MongoReaper.reap(mongod, false).get();
+
+        verify(mongod).stop(any(TaskListener.class), eq(false));
+    }
+
+    @Test
+    public void deletes_dbpath_when_asked() throws Exception {
+        MongoProcess mongod = process("/tmp/delete", "27018");
+
+        MongoReaper.reap(mongod, true).get();
+
+        verify(mongod).stop(any(TaskListener.class), eq(true));
+    }
+
+    private static MongoProcess process(String dbpath, String port) {
+        MongoProcess mongod = mock(MongoProcess.class);
+        when(mongod.getNode()).thenReturn("");
+        when(mongod.getDbpath()).thenReturn(new FilePath(new File(dbpath)));
+        when(mongod.getPort()).thenReturn(port);
+        return mongod;
+    }
+}
@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.For;
+
+@For(MongoScratchVolumes.class)
+public class MongoScratchVolumesTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File fast;
+
+    private File slow;
+
+    private TaskListener listener;
+
+    @Before
+    public void init() {
+        fast = tempFolder.newFolder("fast");
+        slow = tempFolder.newFolder("slow");
+        listener = mock(TaskListener.class);
+        when(listener.getLogger()).thenReturn(StreamTaskListener.fromStdout().getLogger());
+    }
+
+    @Test
+    public void highest_priority_wins() throws Exception {
+        MongoScratchVolumes volumes = new MongoScratchVolumes(Arrays.asList(
+                new MongoScratchVolumes.Volume(slow.getPath(), 1),
+                new MongoScratchVolumes.Volume(fast.getPath(), 10)), 0);
+
+        FilePath actual = volumes.select(null, Collections.<MongoProcess>emptyList(), listener);
+
+        assertEquals(fast.getPath(), actual.getRemote());
+    }
+
+    @Test
+    public void less_used_wins_on_equal_priority() throws Exception {
+        MongoScratchVolumes volumes = new MongoScratchVolumes(Arrays.asList(
+                new MongoScratchVolumes.Volume(fast.getPath(), 1),
+                new MongoScratchVolumes.Volume(slow.getPath(), 1)), 0);
+        List<MongoProcess> running = Arrays.asList(
+                new MongoProcess("job#1", "node", "27017", new FilePath(fast).child("a/db"), null));
+
+        FilePath actual = volumes.select(null, running, listener);
+
+        assertEquals(slow.getPath(), actual.getRemote());
+    }
+
+    @Test
+    public void volumes_without_enough_space_are_skipped() throws Exception {
+        MongoScratchVolumes volumes = new MongoScratchVolumes(Arrays.asList(
+                new MongoScratchVolumes.Volume(fast.getPath(), 1),
+                new MongoScratchVolumes.Volume(new File(tempFolder.getRoot(), "missing").getPath(), 10)), 1);
+
+        assertEquals(fast.getPath(), volumes.select(null, Collections.<MongoProcess>emptyList(), listener).getRemote());
+
+        volumes = new MongoScratchVolumes(volumes.getVolumes(), Integer.MAX_VALUE);
+        assertNull(volumes.select(null, Collections.<MongoProcess>emptyList(), listener));
+    }
+
+    @Test
+    public void missing_volumes_are_skipped_without_a_free_space_minimum() throws Exception {
+        MongoScratchVolumes volumes = new MongoScratchVolumes(Arrays.asList(
+                new MongoScratchVolumes.Volume(fast.getPath(), 1),
+                new MongoScratchVolumes.Volume(new File(tempFolder.getRoot(), "missing").getPath(), 10)), 0);
+
+        assertEquals(fast.getPath(), volumes.select(null, Collections.<MongoProcess>emptyList(), listener).getRemote());
+    }
+
+    @Test
+    public void instances_on_a_sibling_with_the_same_prefix_dont_count() throws Exception {
+        File fastest = tempFolder.newFolder("fastest");
+        MongoScratchVolumes volumes = new MongoScratchVolumes(Arrays.asList(
+                new MongoScratchVolumes.Volume(slow.getPath(), 1),
+                new MongoScratchVolumes.Volume(fast.getPath(), 1)), 0);
+        List<MongoProcess> running = Arrays.asList(
+                new MongoProcess("job#1", "node", "27017", new FilePath(fastest).child("a/db"), null),
+                new MongoProcess("job#2", "node", "27018", new FilePath(slow).child("a/db"), null));
+
+        FilePath actual = volumes.select(null, running, listener);
+
+        assertEquals(fast.getPath(), actual.getRemote());
+    }
+}
@@ -0,0 +1,116 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.tools.ToolProperty;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jvnet.hudson.test.HudsonTestCase;
+
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class MongoShardedClusterTest extends HudsonTestCase {
+
+    public void testBasePortRange() throws Exception {
+        // 1 config server and 2 shards of 2 members
+        MongoShardedCluster cluster = new MongoShardedCluster(2, 2, 1, 28000);
+
+        assertEquals(Arrays.asList(28000, 28001, 28002, 28003, 28004), cluster.allocatePorts(null, ports("27017", "28005")));
+    }
+
+    public void testBasePortRangeOverlapsMongos() throws Exception {
+        // mongos runs on the port of the wrapper
+        assertClash(new MongoShardedCluster(2, 1, 1, 27016), ports("27017"));
+    }
+
+    public void testBasePortRangeOverlapsInstance() throws Exception {
+        assertClash(new MongoShardedCluster(2, 1, 1, 28000), ports("27017", "28002"));
+    }
+
+    public void testFreePortsSkipTakenPorts() throws Exception {
+        VirtualChannel channel = mock(VirtualChannel.class);
+        when(channel.call(any(Callable.class))).thenReturn(new ArrayList<Integer>(Arrays.asList(27017, 28001, 28002, 28003, 28004, 28005)));
+        Launcher launcher = mock(Launcher.class);
+        when(launcher.getChannel()).thenReturn(channel);
+
+        List<Integer> r = new MongoShardedCluster(2, 1, 1, 0).allocatePorts(launcher, ports("27017", "28002"));
+
+        assertEquals(Arrays.asList(28001, 28003, 28004), r);
+    }
+
+    public void testWrapperRejectsOverlap() throws Exception {
+        FreeStyleProject p = createFreeStyleProject();
+        p.getBuildWrappersList().add(new MongoBuildWrapper("fake", null, "28001", null, 0, false, null, false, false,
+                null, false, null, null, new MongoShardedCluster(2, 1, 1, 28000)));
+
+        FreeStyleBuild b = assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get());
+        assertLogContains("Port 28001 of the sharded cluster (28000-28002) is already used by mongos or an instance", b);
+    }
+
+    public void testWrapperRejectsReservedNames() throws Exception {
+        FreeStyleProject p = createFreeStyleProject();
+        p.getBuildWrappersList().add(new MongoBuildWrapper("fake", null, "27017", null, 0, false, null, false, false,
+                Collections.singletonList(new MongoInstance("mongos", null, null, "27018", null, 0)), false, null, null, null));
+
+        FreeStyleBuild b = assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get());
+        assertLogContains(Messages.MongoDB_ReservedInstanceName("mongos"), b);
+    }
+
+    public void testStartedComponentsAreStoppedWhenSetupFails() throws Exception {
+        if (Functions.isWindows()) return;
+        // the stand-in mongo shell can't initiate replica sets, so setup fails once the config server and shard are up
+        FilePath home = new FilePath(FakeMongod.install(createTmpDir(), ""));
+        hudson.getDescriptorByType(MongoBuildWrapper.DescriptorImpl.class).setInstallations(
+                new MongoDBInstallation("fake", home.getRemote(), Collections.<ToolProperty<?>>emptyList(), null, 0));
+
+        FreeStyleProject p = createFreeStyleProject();
+        p.getBuildWrappersList().add(new MongoBuildWrapper("fake", null, freePort(), null, 10000, false, null, false, true,
+                null, false, null, null, new MongoShardedCluster(1, 1, 1, 0)));
+
+        FreeStyleBuild b = assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get());
+        assertLogContains("WARNING: ignoring workload capture for the sharded cluster", b);
+        assertLogContains("Starting instance cfg0", b);
+        assertLogContains("Starting instance shard0-0", b);
+        assertEquals(2, b.getLog().split("Killing mongodb process", -1).length - 1);
+        assertTrue(MongoProcess.active("").isEmpty());
+    }
+
+    private static void assertClash(MongoShardedCluster cluster, Set<String> taken) throws Exception {
+        try {
+            cluster.allocatePorts(null, taken);
+            fail("ports overlap");
+        } catch (AbortException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("is already used by mongos or an instance"));
+        }
+    }
+
+    private static Set<String> ports(String... ports) {
+        return new HashSet<String>(Arrays.asList(ports));
+    }
+
+    private static String freePort() throws IOException {
+        ServerSocket s = new ServerSocket(0);
+        try {
+            return String.valueOf(s.getLocalPort());
+        } finally {
+            s.close();
+        }
+    }
+}
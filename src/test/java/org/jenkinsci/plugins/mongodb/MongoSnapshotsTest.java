@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import hudson.FilePath;
+import hudson.model.Node;
+import hudson.util.StreamTaskListener;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MongoSnapshotsTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private MongoSnapshots snapshots;
+
+    private FilePath seeded;
+
+    @Before
+    public void init() throws Exception {
+        snapshots = new MongoSnapshots(tempFolder.newFolder("controller"));
+        File dir = tempFolder.newFolder("seeded");
+        FileUtils.writeStringToFile(new File(dir, "test.0"), "data");
+        FileUtils.writeStringToFile(new File(dir, "test.ns"), "namespaces");
+        seeded = new FilePath(dir);
+    }
+
+    @Test
+    public void versions() throws Exception {
+        assertEquals(1, snapshots.save("orders", seeded, 0).getVersion());
+        assertEquals(2, snapshots.save("orders", seeded, 0).getVersion());
+
+        assertEquals(asList("orders"), snapshots.getNames());
+        assertEquals(2, snapshots.resolve("orders").getVersion());
+        assertEquals(1, snapshots.resolve("orders:1").getVersion());
+        assertNull(snapshots.resolve("orders:3"));
+        assertNull(snapshots.resolve("customers"));
+        assertNull(snapshots.resolve("../orders"));
+    }
+
+    @Test
+    public void retain() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            snapshots.save("orders", seeded, 2);
+        }
+        assertEquals(asList(3, 4), snapshots.getVersions("orders"));
+    }
+
+    @Test
+    public void restore_through_cache() throws Exception {
+        MongoSnapshots.Snapshot snapshot = snapshots.save("orders", seeded, 0);
+        Node node = mock(Node.class);
+        File nodeRoot = tempFolder.newFolder("agent");
+        when(node.getRootPath()).thenReturn(new FilePath(nodeRoot));
+
+        File dbpath = tempFolder.newFolder("dbpath");
+        snapshots.restore(snapshot, node, new FilePath(dbpath), new StreamTaskListener(System.out));
+        assertEquals("data", FileUtils.readFileToString(new File(dbpath, "test.0")));
+        assertTrue(new File(nodeRoot, "mongodb-snapshots/" + snapshot.getChecksum() + ".tgz").exists());
+
+        // a second restore doesn't touch the controller copy
+        snapshot.getArchive().delete();
+        File dbpath2 = tempFolder.newFolder("dbpath2");
+        snapshots.restore(snapshot, node, new FilePath(dbpath2), new StreamTaskListener(System.out));
+        assertEquals("namespaces", FileUtils.readFileToString(new File(dbpath2, "test.ns")));
+    }
+
+    @Test
+    public void corrupted_download_is_rejected() throws Exception {
+        MongoSnapshots.Snapshot snapshot = snapshots.save("orders", seeded, 0);
+        MongoSnapshots.Snapshot corrupted = new MongoSnapshots.Snapshot("orders", 1, snapshot.getArchive(), "0123456789abcdef0123456789abcdef");
+        Node node = mock(Node.class);
+        File nodeRoot = tempFolder.newFolder("agent");
+        when(node.getRootPath()).thenReturn(new FilePath(nodeRoot));
+
+        try {
+            snapshots.restore(corrupted, node, new FilePath(tempFolder.newFolder("dbpath")), new StreamTaskListener(System.out));
+            assertTrue("expected a checksum mismatch", false);
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Checksum mismatch"));
+        }
+        assertFalse(new File(nodeRoot, "mongodb-snapshots/0123456789abcdef0123456789abcdef.tgz").exists());
+    }
+}
@@ -0,0 +1,47 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MongoWatchdogTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void tail() throws Exception {
+        File log = tempFolder.newFile("mongodb.log");
+        FileUtils.writeStringToFile(log, "one\ntwo\nthree\nfour\n");
+
+        assertEquals("three\nfour\n", MongoWatchdog.tail(log, 2));
+        assertEquals("one\ntwo\nthree\nfour\n", MongoWatchdog.tail(log, 10));
+    }
+
+    @Test
+    public void tail_without_final_newline() throws Exception {
+        File log = tempFolder.newFile("mongodb.log");
+        FileUtils.writeStringToFile(log, "one\ntwo\nthree");
+
+        assertEquals("two\nthree", MongoWatchdog.tail(log, 2));
+    }
+
+    @Test
+    public void tail_across_buffers() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            content.append("line ").append(i).append('\n');
+        }
+        File log = tempFolder.newFile("mongodb.log");
+        FileUtils.writeStringToFile(log, content.toString());
+
+        String tail = MongoWatchdog.tail(log, 1500);
+        assertEquals(1500, tail.split("\n").length);
+        assertEquals(true, tail.startsWith("line 3500\n"));
+    }
+}
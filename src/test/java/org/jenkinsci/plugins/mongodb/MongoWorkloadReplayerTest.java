@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.mongodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hudson.util.StreamTaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class MongoWorkloadReplayerTest {
+
+    @Test
+    public void replayed_mongod_cannot_collide_with_an_instance() {
+        assertFalse(MongoInstance.isValidName(MongoWorkloadReplayer.REPLAY_NAME));
+    }
+
+    @Test
+    public void records_every_latency() throws Exception {
+        Map<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+        Map<String, Integer> unreplayable = new TreeMap<String, Integer>();
+        parse(histograms, unreplayable, "latency query 0\nlatency query 1000\nlatency query 7000\nlatency update 2000\n");
+
+        assertEquals(3, histograms.get("query").getCount());
+        assertEquals(7000, histograms.get("query").getMax());
+        assertEquals(1, histograms.get("update").getCount());
+        assertTrue(unreplayable.isEmpty());
+    }
+
+    @Test
+    public void counts_unreplayable_operations() throws Exception {
+        Map<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+        Map<String, Integer> unreplayable = new TreeMap<String, Integer>();
+        String log = parse(histograms, unreplayable,
+                "unreplayable insert document not recorded by the profiler\n" +
+                "unreplayable insert document not recorded by the profiler\n" +
+                "unreplayable update E11000 duplicate key error\n" +
+                "something else\n");
+
+        assertEquals(Integer.valueOf(2), unreplayable.get("insert"));
+        assertEquals(Integer.valueOf(1), unreplayable.get("update"));
+        assertTrue(histograms.isEmpty());
+        // the first reason per operation type is logged, and other output passed through
+        assertEquals(1, log.split("Could not replay insert", -1).length - 1);
+        assertTrue(log.contains("Could not replay update: E11000 duplicate key error"));
+        assertTrue(log.contains("something else"));
+    }
+
+    private static String parse(Map<String, LatencyHistogram> histograms, Map<String, Integer> unreplayable, String output) throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        MongoWorkloadReplayer.LatencyParser parser = new MongoWorkloadReplayer.LatencyParser(histograms, unreplayable, new StreamTaskListener(log));
+        parser.write(output.getBytes());
+        parser.close();
+        return log.toString();
+    }
+}
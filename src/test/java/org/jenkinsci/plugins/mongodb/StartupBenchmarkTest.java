@@ -0,0 +1,234 @@
+package org.jenkinsci.plugins.mongodb;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.tools.ToolProperty;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jvnet.hudson.test.HudsonTestCase;
+import org.jvnet.hudson.test.TestBuilder;
+
+/**
+ * Runs the real {@link MongoBuildWrapper} setUp/launch/tearDown path against {@link FakeMongod}
+ * and reports time-to-ready and teardown distributions.
+ *
+ * <p>
+ * Set <tt>-Dmongodb.benchmark.iterations=N</tt> for more samples per scenario.
+ * Timings are only checked against what the stand-in is told to do (it can't be ready before its startup delay,
+ * and the build can't wait less than its shutdown delay) and against each other. Above that, the wrapper may
+ * add up to <tt>-Dmongodb.benchmark.overhead=ms</tt> (5000 by default), so loaded machines don't fail the build;
+ * lower it to catch polling regressions on a quiet one.
+ * Only runs on Unix, as the stand-in is started through a shell script.
+ */
+public class StartupBenchmarkTest extends HudsonTestCase {
+
+    private static final int ITERATIONS = Integer.getInteger("mongodb.benchmark.iterations", 3);
+
+    private static final int OVERHEAD = Integer.getInteger("mongodb.benchmark.overhead", 5000);
+
+    private volatile long builderStart;
+
+    public void testImmediateStartup() throws Exception {
+        if (Functions.isWindows()) return;
+
+        Result r = run("immediate startup", standIn(""), 0);
+
+        assertOverhead(r.ready.median(), 0);
+    }
+
+    public void testSlowStartup() throws Exception {
+        if (Functions.isWindows()) return;
+
+        Result r = run("slow startup (3s)", standIn("-Dfake.startupDelay=3000"), 0);
+
+        assertTrue(r.ready.min() >= 3000);
+        assertOverhead(r.ready.median(), 3000);
+    }
+
+    public void testSlowShutdown() throws Exception {
+        if (Functions.isWindows()) return;
+
+        Result r = run("slow shutdown (2s)", standIn("-Dfake.shutdownDelay=2000"), 0);
+
+        assertTrue(r.teardown.min() >= 2000);
+    }
+
+    public void testAsyncTeardown() throws Exception {
+        if (Functions.isWindows()) return;
+
+        FilePath home = standIn("-Dfake.shutdownDelay=2000");
+        Result sync = run("sync teardown (2s)", home, 0);
+        Result async = run("async teardown (2s)", home, 0, freePort(), true);
+
+        // the build no longer waits for mongod to exit
+        assertTrue(async.teardown.median() < sync.teardown.min());
+    }
+
+    public void testEarlyCrash() throws Exception {
+        if (Functions.isWindows()) return;
+
+        Result r = run("early crash", standIn("-Dfake.crash=true"), 30000);
+
+        for (FreeStyleBuild b : r.builds) {
+            assertBuildStatus(hudson.model.Result.FAILURE, b);
+            assertLogContains("Filed to start mongodb", b);
+            assertTrue(b.getWorkspace().child("mongodb.log").readToString().contains("terminating"));
+        }
+        // a crash is noticed right away rather than when the start timeout runs out
+        assertOverhead(r.failure.median(), 0);
+    }
+
+    public void testPortConflict() throws Exception {
+        if (Functions.isWindows()) return;
+
+        FilePath home = standIn("");
+        int port = freePort();
+        Process occupant = new ProcessBuilder(home.child("bin/mongod").getRemote(), "--port", String.valueOf(port)).start();
+        try {
+            awaitListening(port);
+            Result r = run("port conflict", home, 30000, port);
+
+            for (FreeStyleBuild b : r.builds) {
+                assertBuildStatus(hudson.model.Result.FAILURE, b);
+                assertLogContains(Messages.MongoDB_PortInUse(String.valueOf(port)), b);
+            }
+            assertOverhead(r.failure.median(), 0);
+        } finally {
+            occupant.destroy();
+        }
+    }
+
+    private Result run(String scenario, FilePath home, int startTimeout) throws Exception {
+        return run(scenario, home, startTimeout, freePort());
+    }
+
+    private Result run(String scenario, FilePath home, int startTimeout, int port) throws Exception {
+        return run(scenario, home, startTimeout, port, false);
+    }
+
+    private Result run(String scenario, FilePath home, int startTimeout, int port, boolean asyncTeardown) throws Exception {
+        hudson.getDescriptorByType(MongoBuildWrapper.DescriptorImpl.class).setInstallations(
+                new MongoDBInstallation("fake", home.getRemote(), Collections.<ToolProperty<?>>emptyList(), null, 0));
+
+        FreeStyleProject p = createFreeStyleProject();
+        MongoBuildWrapper wrapper = new MongoBuildWrapper("fake", null, String.valueOf(port), null, startTimeout);
+        wrapper.setAsyncTeardown(asyncTeardown);
+        p.getBuildWrappersList().add(wrapper);
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                builderStart = System.currentTimeMillis();
+                return true;
+            }
+        });
+
+        Result r = new Result();
+        for (int i = 0; i < ITERATIONS; i++) {
+            builderStart = 0;
+            FreeStyleBuild b = p.scheduleBuild2(0).get();
+            r.builds.add(b);
+            if (builderStart != 0) {
+                r.ready.add(builderStart - b.getTimeInMillis());
+                r.teardown.add(b.getTimeInMillis() + b.getDuration() - builderStart);
+            } else {
+                // aborted in setUp, before reaching the builder
+                r.failure.add(b.getDuration());
+            }
+        }
+
+        System.out.println(String.format("[MongoDB benchmark] %-20s time-to-ready   %s", scenario, r.ready));
+        System.out.println(String.format("[MongoDB benchmark] %-20s teardown        %s", scenario, r.teardown));
+        System.out.println(String.format("[MongoDB benchmark] %-20s time-to-failure %s", scenario, r.failure));
+        return r;
+    }
+
+    /**
+     * Asserts that the wrapper added at most the allowed overhead to what the stand-in itself took.
+     */
+    private static void assertOverhead(long millis, long intrinsic) {
+        assertTrue(String.format("took %dms, expected at most %dms", millis, intrinsic + OVERHEAD), millis <= intrinsic + OVERHEAD);
+    }
+
+    /**
+     * Creates a MongoDB home whose bin/mongod starts {@link FakeMongod} with the given JVM options.
+     */
+    private FilePath standIn(String jvmOptions) throws Exception {
+        return new FilePath(FakeMongod.install(createTmpDir(), jvmOptions));
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket s = new ServerSocket(0);
+        try {
+            return s.getLocalPort();
+        } finally {
+            s.close();
+        }
+    }
+
+    private static void awaitListening(int port) throws Exception {
+        for (int i = 0; i < 300; i++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (ConnectException e) {
+                Thread.sleep(100);
+            }
+        }
+        fail("nothing listens on port " + port);
+    }
+
+    private static class Result {
+        final List<FreeStyleBuild> builds = new ArrayList<FreeStyleBuild>();
+        final Distribution ready = new Distribution();
+        final Distribution teardown = new Distribution();
+        final Distribution failure = new Distribution();
+    }
+
+    private static class Distribution {
+
+        private final List<Long> samples = new ArrayList<Long>();
+
+        void add(long millis) {
+            samples.add(millis);
+        }
+
+        long min() {
+            return Collections.min(samples);
+        }
+
+        long max() {
+            return Collections.max(samples);
+        }
+
+        long median() {
+            return percentile(50);
+        }
+
+        long percentile(int p) {
+            List<Long> sorted = new ArrayList<Long>(samples);
+            Collections.sort(sorted);
+            return sorted.get(Math.min(sorted.size() - 1, sorted.size() * p / 100));
+        }
+
+        @Override
+        public String toString() {
+            if (samples.isEmpty()) {
+                return "n=0";
+            }
+            return String.format("n=%d min=%dms median=%dms p90=%dms max=%dms",
+                    samples.size(), min(), median(), percentile(90), max());
+        }
+    }
+}